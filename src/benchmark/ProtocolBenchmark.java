@@ -0,0 +1,294 @@
+/*
+ *  ProtocolBenchmark.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package benchmark;
+
+import game.Constants;
+import game.Constants.State;
+import game.protocol.BinaryProtocol;
+import game.protocol.MessageListener;
+import game.protocol.Protocol;
+import game.protocol.TextProtocol;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * Compare le protocole texte historique et le protocole binaire :
+ *  - nombre d'octets envoyés par tick de jeu (une position de balle à
+ *    chaque tick, une position de mur de temps en temps) ;
+ *  - octets alloués par message encodé puis décodé ;
+ *  - débit de réception d'un mélange de messages, y compris avec l'ancien
+ *    décodage du protocole texte (découpage par split()).
+ *
+ * Usage : java benchmark.ProtocolBenchmark [nombre de messages]
+ */
+public final class ProtocolBenchmark {
+    /**
+     * Listener qui se contente de compter les messages décodés
+     */
+    private static final class CountingListener implements MessageListener {
+        long count;
+
+        public void onMoveMessage(int player, int y) { count++; }
+        public void onBallMessage(int x, int y) { count++; }
+        public void onScoreMessage(int player, int score) { count++; }
+        public void onContactMessage() { count++; }
+        public void onWallTouchedMessage() { count++; }
+        public void onStateMessage(State state) { count++; }
+        public void onWallPosMessage(int x, int y, boolean visible) { count++; }
+        public void onInputMessage(int player, int sequence, int y) { count++; }
+        public void onInputAckMessage(int player, int sequence, int y) { count++; }
+        public void onReliableMessage(int sequence, ByteBuffer payload) { count++; }
+        public void onAckMessage(int ack, int bits) { count++; }
+        public void onSnapshotMessage(int sequence, int baseline, ByteBuffer delta) { count++; }
+        public void onSnapshotAckMessage(int sequence) { count++; }
+        public boolean onFrameMessage(int sequence, long tick) { return true; }
+        public void onPingMessage(int time) { count++; }
+        public void onPongMessage(int echo, int hold, int loss) { count++; }
+        public void onDisconnectMessage() { count++; }
+        public void onSessionMessage(long token) { count++; }
+        public void onResumeMessage(long token) { count++; }
+    }
+
+    /**
+     * Décodage d'un message reçu
+     */
+    private interface Decoder {
+        void read(ByteBuffer in, MessageListener listener);
+    }
+
+
+    public static void main(String[] args) {
+        int nbMessages = args.length == 1 ? Integer.parseInt(args[0]) : 1000000;
+
+        System.out.println(String.format("%-8s %14s %18s %12s", "proto",
+                           "octets/tick", "alloc/message", "ns/message"));
+
+        run("texte", new TextProtocol(), nbMessages);
+        run("binaire", new BinaryProtocol(), nbMessages);
+
+        System.out.println();
+        System.out.println(String.format("%-8s %18s %18s", "réception",
+                           "messages/s", "alloc/message"));
+
+        final TextProtocol text = new TextProtocol();
+        final BinaryProtocol binary = new BinaryProtocol();
+
+        receive("split", text, new Decoder() {
+            public void read(ByteBuffer in, MessageListener listener) {
+                splitRead(in, listener);
+            }
+        }, nbMessages);
+        receive("texte", text, new Decoder() {
+            public void read(ByteBuffer in, MessageListener listener) {
+                text.read(in, listener);
+            }
+        }, nbMessages);
+        receive("binaire", binary, new Decoder() {
+            public void read(ByteBuffer in, MessageListener listener) {
+                binary.read(in, listener);
+            }
+        }, nbMessages);
+    }
+
+    /**
+     * Décode en boucle un mélange de messages encodés à l'avance (surtout
+     * des positions de balle et de raquette, comme en cours de partie)
+     */
+    private static void receive(String name, Protocol protocol, Decoder decoder,
+                                int nbMessages) {
+        ByteBuffer[] messages = new ByteBuffer[8];
+        for(int i = 0; i < messages.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+
+            switch(i) {
+                case 0:
+                    protocol.writeWallPos(buffer, 250, 180, true);
+                    break;
+                case 1:
+                    protocol.writeState(buffer, State.STARTED);
+                    break;
+                case 2:
+                    protocol.writeScore(buffer, 2, 3);
+                    break;
+                case 3:
+                case 4:
+                    protocol.writeMove(buffer, 1, -12 + 37 * i);
+                    break;
+                default:
+                    protocol.writeBall(buffer, 320 + i, 240 - i);
+            }
+
+            buffer.flip();
+            messages[i] = buffer;
+        }
+
+        CountingListener listener = new CountingListener();
+
+        // préchauffage du JIT
+        decodeAll(decoder, messages, listener, nbMessages);
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        decodeAll(decoder, messages, listener, nbMessages);
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        if(listener.count != 2L * nbMessages)
+            throw new IllegalStateException(name + " : messages perdus au décodage");
+
+        System.out.println(String.format("%-8s %18.0f %18s", name,
+                           nbMessages * 1e9 / elapsed,
+                           allocatedBefore < 0 ? "n/a" : String.format("%.1f o", (double) allocated / nbMessages)));
+    }
+
+    private static void decodeAll(Decoder decoder, ByteBuffer[] messages,
+                                  MessageListener listener, int nbMessages) {
+        for(int i = 0; i < nbMessages; i++) {
+            ByteBuffer message = messages[i & (messages.length - 1)];
+
+            message.rewind();
+            decoder.read(message, listener);
+        }
+    }
+
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    /**
+     * Ancien décodage du protocole texte, gardé comme référence : le
+     * message est converti en chaîne puis découpé, et l'instruction
+     * reconnue par comparaisons successives de chaînes
+     */
+    private static void splitRead(ByteBuffer in, MessageListener listener) {
+        byte[] data = new byte[in.remaining()];
+        in.get(data);
+
+        String[] args = new String(data, CHARSET).split(" ");
+        String cmd = args[0];
+
+        try {
+            switch(args.length) {
+                case 1:
+                    if(cmd.equals(Constants.MSG_WALL_TOUCHED))
+                        listener.onWallTouchedMessage();
+                    else if (cmd.equals(Constants.MSG_CONTACT))
+                        listener.onContactMessage();
+                    else if (cmd.equals(Constants.MSG_DISCONNECT))
+                        listener.onDisconnectMessage();
+                    break;
+                case 2:
+                    if (cmd.equals(Constants.MSG_STATE_CHANGED))
+                        listener.onStateMessage(State.valueOf(args[1]));
+                    break;
+                case 3:
+                    if(cmd.equals(Constants.MSG_MOVE))
+                        listener.onMoveMessage(args[1].equals("P1") ? 1 : 2, Integer.parseInt(args[2]));
+                    else if(cmd.equals(Constants.MSG_BALL))
+                        listener.onBallMessage(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+                    else if(cmd.equals(Constants.MSG_SCORE))
+                        listener.onScoreMessage(args[1].equals("P1") ? 1 : 2, Integer.parseInt(args[2]));
+                    break;
+                case 4:
+                    if(cmd.equals(Constants.MSG_WALL_POS))
+                        listener.onWallPosMessage(Integer.parseInt(args[1]),
+                                                  Integer.parseInt(args[2]),
+                                                  args[3].equals("on"));
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            // instruction mal formée : ignorée
+        }
+    }
+
+    private static void run(String name, Protocol protocol, int nbMessages) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        CountingListener listener = new CountingListener();
+
+        // préchauffage du JIT
+        roundTrips(protocol, buffer, listener, nbMessages);
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        roundTrips(protocol, buffer, listener, nbMessages);
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.println(String.format("%-8s %14.2f %18s %12.1f", name,
+                           bytesPerTick(protocol, buffer),
+                           allocatedBefore < 0 ? "n/a" : String.format("%.1f o", (double) allocated / nbMessages),
+                           (double) elapsed / nbMessages));
+    }
+
+    /**
+     * Encode puis décode des positions de balle, comme le fait le serveur
+     * à chaque tick
+     */
+    private static void roundTrips(Protocol protocol, ByteBuffer buffer,
+                                   MessageListener listener, int nbMessages) {
+        for(int i = 0; i < nbMessages; i++) {
+            buffer.clear();
+            protocol.writeBall(buffer, 100 + i % 400, 50 + i % 300);
+            buffer.flip();
+            protocol.read(buffer, listener);
+        }
+    }
+
+    /**
+     * Taille moyenne des données envoyées par tick : la position de la balle
+     * à chaque tick et celle du mur une fois tous les 200 ticks en moyenne
+     */
+    private static double bytesPerTick(Protocol protocol, ByteBuffer buffer) {
+        int nbTicks = 200;
+        long total = 0;
+
+        for(int i = 0; i < nbTicks; i++) {
+            buffer.clear();
+            protocol.writeBall(buffer, 320 + i, 240 - i);
+            total += buffer.position();
+        }
+
+        buffer.clear();
+        protocol.writeWallPos(buffer, 250, 180, true);
+        total += buffer.position();
+
+        return (double) total / nbTicks;
+    }
+
+    /**
+     * Octets alloués jusqu'ici par le thread courant, -1 si la JVM ne sait
+     * pas les mesurer
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
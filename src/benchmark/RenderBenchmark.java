@@ -0,0 +1,185 @@
+/*
+ *  RenderBenchmark.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package benchmark;
+
+import game.Constants;
+import game.view.Sprite;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Compare la vitesse de copie des images du jeu selon leur format :
+ *  - telles que lues par ImageIO ;
+ *  - converties au format de l'écran (cf. Sprite.toCompatible()).
+ *
+ * Avec un écran, les images sont copiées dans une VolatileImage, comme le
+ * tampon d'affichage. Sans écran (java.awt.headless), elles sont copiées
+ * dans une image TYPE_INT_RGB, et le format "compatible" est celui que
+ * préfèrent les boucles logicielles (TYPE_INT_ARGB_PRE).
+ *
+ * Usage : java benchmark.RenderBenchmark [nombre de copies par image]
+ */
+public final class RenderBenchmark {
+    private static final String[] IMAGES = {
+        Constants.IMG_BALL, Constants.IMG_WALL, Constants.IMG_RACKET_P1
+    };
+
+
+    public static void main(String[] args) throws IOException {
+        int nbCopies = args.length == 1 ? Integer.parseInt(args[0]) : 200000;
+
+        GraphicsConfiguration gc = GraphicsEnvironment.isHeadless() ? null
+                : GraphicsEnvironment.getLocalGraphicsEnvironment()
+                                     .getDefaultScreenDevice()
+                                     .getDefaultConfiguration();
+
+        System.out.println(gc == null ? "Sans écran : copies logicielles vers TYPE_INT_RGB"
+                                      : "Copies vers une VolatileImage (" + gc + ")");
+        System.out.println(String.format("%-20s %-12s %-12s %10s %12s", "image", "format",
+                                         "transparence", "ns/copie", "Mpixels/s"));
+
+        for(String path : IMAGES) {
+            BufferedImage read = ImageIO.read(new File(path));
+            BufferedImage compatible = gc == null ? toSoftware(read)
+                                                  : Sprite.toCompatible(read, gc);
+
+            bench(path, read, gc, nbCopies);
+            bench(path, compatible, gc, nbCopies);
+        }
+    }
+
+    private static void bench(String name, BufferedImage img, GraphicsConfiguration gc, int nbCopies) {
+        // préchauffage du JIT (et mise en mémoire vidéo des images gérées)
+        copy(img, gc, nbCopies / 10);
+
+        long start = System.nanoTime();
+
+        copy(img, gc, nbCopies);
+
+        long elapsed = System.nanoTime() - start;
+        long pixels = (long) nbCopies * img.getWidth() * img.getHeight();
+
+        System.out.println(String.format("%-20s %-12s %-12s %10.1f %12.1f",
+                                         new File(name).getName(), typeName(img),
+                                         transparencyName(img.getTransparency()),
+                                         (double) elapsed / nbCopies,
+                                         pixels * 1e3 / elapsed));
+    }
+
+    /**
+     * Copie l'image à des positions variées, et attend que les copies
+     * soient réellement faites
+     */
+    private static void copy(BufferedImage img, GraphicsConfiguration gc, int nbCopies) {
+        int width = Constants.FIELD_WIDTH;
+        int height = Constants.FIELD_HEIGHT;
+        int rangeX = width - img.getWidth();
+        int rangeY = height - img.getHeight();
+
+        if(gc == null) {
+            BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = target.createGraphics();
+
+            try {
+                for(int i = 0; i < nbCopies; i++)
+                    g.drawImage(img, (i * 7) % rangeX, (i * 13) % rangeY, null);
+            } finally {
+                g.dispose();
+            }
+
+            return;
+        }
+
+        VolatileImage target = gc.createCompatibleVolatileImage(width, height);
+
+        do {
+            if(target.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE)
+                target = gc.createCompatibleVolatileImage(width, height);
+
+            Graphics2D g = target.createGraphics();
+
+            try {
+                for(int i = 0; i < nbCopies; i++)
+                    g.drawImage(img, (i * 7) % rangeX, (i * 13) % rangeY, null);
+            } finally {
+                g.dispose();
+            }
+
+            // les copies accélérées sont asynchrones : la lecture de
+            // l'image attend qu'elles soient terminées
+            Toolkit.getDefaultToolkit().sync();
+            target.getSnapshot();
+        } while(target.contentsLost());
+    }
+
+    /**
+     * Format préféré des boucles de copie logicielles
+     */
+    private static BufferedImage toSoftware(BufferedImage src) {
+        int type = Sprite.transparencyOf(src) == Transparency.OPAQUE
+                 ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE;
+
+        BufferedImage dst = new BufferedImage(src.getWidth(), src.getHeight(), type);
+        Graphics2D g = dst.createGraphics();
+
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(src, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+
+        return dst;
+    }
+
+    private static String typeName(BufferedImage img) {
+        switch(img.getType()) {
+            case BufferedImage.TYPE_CUSTOM:         return "CUSTOM";
+            case BufferedImage.TYPE_INT_RGB:        return "INT_RGB";
+            case BufferedImage.TYPE_INT_ARGB:       return "INT_ARGB";
+            case BufferedImage.TYPE_INT_ARGB_PRE:   return "INT_ARGB_PRE";
+            case BufferedImage.TYPE_INT_BGR:        return "INT_BGR";
+            case BufferedImage.TYPE_4BYTE_ABGR:     return "4BYTE_ABGR";
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE: return "4BYTE_ABGR_PRE";
+            default:                                return "type " + img.getType();
+        }
+    }
+
+    private static String transparencyName(int transparency) {
+        switch(transparency) {
+            case Transparency.OPAQUE:  return "OPAQUE";
+            case Transparency.BITMASK: return "BITMASK";
+            default:                   return "TRANSLUCENT";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  SimulationBenchmark.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package benchmark;
+
+import game.Constants;
+import game.Constants.Level;
+import game.Constants.State;
+import game.MatchListener;
+import game.MatchSimulation;
+import game.objects.Ball;
+import game.objects.Player;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Mesure le nombre de pas de simulation par seconde, sans interface
+ * graphique : les deux raquettes suivent la balle (en ratant de temps en
+ * temps) et la balle est relancée dès que possible.
+ *
+ * Usage : java benchmark.SimulationBenchmark [nombre de pas]
+ */
+public final class SimulationBenchmark implements MatchListener {
+    private long contacts, points;
+
+
+    public static void main(String[] args) {
+        int nbSteps = args.length == 1 ? Integer.parseInt(args[0]) : 50000000;
+
+        SimulationBenchmark bench = new SimulationBenchmark();
+        MatchSimulation simulation = new MatchSimulation(Constants.FIELD_WIDTH,
+                                                         Constants.FIELD_HEIGHT,
+                                                         bench);
+        simulation.setLevel(Level.HARD);
+        simulation.setMaxPoints(Integer.MAX_VALUE);
+        simulation.setState(State.READY);
+
+        // préchauffage du JIT
+        run(simulation, nbSteps / 10);
+
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        run(simulation, nbSteps);
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.println(String.format("%d pas en %.1f ms : %.1f millions de pas/s",
+                           nbSteps, elapsed / 1e6, nbSteps * 1e3 / elapsed));
+        System.out.println(String.format("%d contacts, %d points, %s alloués par pas",
+                           bench.contacts, bench.points,
+                           allocatedBefore < 0 ? "n/a" : String.format("%.3f o", (double) allocated / nbSteps)));
+    }
+
+    private static void run(MatchSimulation simulation, int nbSteps) {
+        Ball ball = simulation.getBall();
+        Player player1 = simulation.getPlayer1();
+        Player player2 = simulation.getPlayer2();
+
+        for(int i = 0; i < nbSteps; i++) {
+            if(simulation.getState() == State.READY)
+                simulation.serve();
+
+            // les raquettes suivent la balle, sauf de temps en temps
+            if(i % 5000 != 0) {
+                player1.y = ball.y - 25;
+                player2.y = ball.y - 25;
+            }
+
+            simulation.step();
+        }
+    }
+
+    /**
+     * Octets alloués jusqu'ici par le thread courant, -1 si la JVM ne sait
+     * pas les mesurer
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if(!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public void onBallContact() {
+        contacts++;
+    }
+
+    public void onWallMoved() { }
+
+    public void onBackWallTouched() { }
+
+    public void onScoreChanged() {
+        points++;
+    }
+
+    public void onStateChanged(State newState) { }
+}
@@ -34,6 +34,39 @@ public interface Constants {
     String MSG_WALL_TOUCHED     = "wall";
     String MSG_STATE_CHANGED    = "state";
     String MSG_WALL_POS           = "wall_pos";
+    String MSG_DISCONNECT       = "bye";
+
+    /**
+     * Messages échangés lors de la poignée de main : un client récent
+     * propose le protocole binaire, un ancien client se contente de "HELLO"
+     * et reste en mode texte
+     */
+    String MSG_HELLO            = "HELLO";
+    String MSG_HELLO_BINARY     = "HELLO BIN";
+
+    /**
+     * Codes des instructions dans le protocole binaire (un octet par
+     * instruction, cf. game.protocol.BinaryProtocol)
+     */
+    byte OP_MOVE                = 0x01;
+    byte OP_BALL                = 0x02;
+    byte OP_SCORE               = 0x03;
+    byte OP_CONTACT             = 0x04;
+    byte OP_WALL_TOUCHED        = 0x05;
+    byte OP_STATE_CHANGED       = 0x06;
+    byte OP_WALL_POS            = 0x07;
+    byte OP_INPUT               = 0x08;
+    byte OP_INPUT_ACK           = 0x09;
+    byte OP_RELIABLE            = 0x0A;
+    byte OP_ACK                 = 0x0B;
+    byte OP_SNAPSHOT            = 0x0C;
+    byte OP_SNAPSHOT_ACK        = 0x0D;
+    byte OP_FRAME               = 0x0E;
+    byte OP_PING                = 0x0F;
+    byte OP_PONG                = 0x10;
+    byte OP_DISCONNECT          = 0x11;
+    byte OP_SESSION             = 0x12;
+    byte OP_RESUME              = 0x13;
 
     /**
      * Localisation des ressources sur le disque dur
@@ -48,10 +81,82 @@ public interface Constants {
     
     int EFFECTS_ZONE_MARGIN = 150;
 
+    /**
+     * Fréquence de simulation de référence : les vitesses sont exprimées en
+     * pixels par tick à cette fréquence. C'est aussi la fréquence par défaut.
+     */
+    int REFERENCE_TICK_RATE = 120;
+
+    /**
+     * Silence (en millisecondes) au-delà duquel le joueur distant est
+     * considéré comme parti. En mode binaire, chaque côté envoie au moins
+     * un datagramme toutes les MessageSender.HEARTBEAT_INTERVAL.
+     */
+    int IDLE_TIMEOUT = 5000;
+
+    /**
+     * Silence (en millisecondes) au-delà duquel un client qui a reçu un
+     * jeton de session tente de reprendre sa partie (cf. OP_RESUME), et
+     * délai entre deux tentatives.
+     *
+     * Aucune boucle de jeu ne doit s'arrêter volontairement aussi longtemps
+     * (le clignotement après un point ne la bloque pas) : l'hôte distant
+     * croirait le lien coupé. En pause, les pings continuent de partir
+     * (cf. MessageSender.HEARTBEAT_INTERVAL).
+     */
+    int RESUME_DELAY = 1000;
+    int RESUME_INTERVAL = 250;
+
+    /**
+     * Nombre minimal d'envois de l'état de la partie par seconde, quand le
+     * lien est encombré (au mieux, il part à chaque tick)
+     */
+    int MIN_SEND_RATE = 20;
+
+    /**
+     * Nombre d'images affichées par seconde quand la fréquence de l'écran
+     * n'est pas connue (cf. game.view.RenderLoop)
+     */
+    int TARGET_FPS = 60;
+
+    /**
+     * Retard par défaut de l'affichage du client sur les positions reçues,
+     * en millisecondes (cf. Pong.setInterpolationDelay())
+     */
+    int INTERPOLATION_DELAY = 50;
+
+    /**
+     * Dimensions des objets du terrain (ce sont celles de leurs images)
+     */
+    int BALL_SIZE           = 32;
+    int RACKET_WIDTH        = 13;
+    int RACKET_HEIGHT       = 75;
+    int WALL_WIDTH          = 20;
+    int WALL_HEIGHT         = 75;
+
+    /**
+     * Dimensions du terrain (et de la fenêtre de jeu)
+     */
+    int FIELD_WIDTH         = 640;
+    int FIELD_HEIGHT        = 480;
+
     /**
      * Représente un état du jeu
      */
     enum State {
         WAITING, READY, STARTED, PAUSED, FINISHED
     }
+
+    /**
+     * Niveaux de difficulté disponibles :
+     *  - Noob : jeu normal, vitesse de balle fixe
+     *  - Easy : la vitesse augmente en fonction du temps de jeu
+     *  - Medium : un mur apparait de temps en temps
+     *  - Hard : trois raquettes ?
+     *
+     * Bien évidemment, les difficultés s'aditionnent ...
+     */
+    enum Level {
+        NOOB, EASY, MEDIUM, HARD
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ *  InputPrediction.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+import network.SequenceNumbers;
+
+
+/**
+ * Côté client : prédiction de la position de sa propre raquette.
+ *
+ * Chaque mouvement est appliqué immédiatement, numéroté et conservé tant
+ * que le serveur ne l'a pas confirmé. A chaque confirmation, on repart de
+ * la position que le serveur a retenue et on rejoue par dessus les
+ * mouvements qu'il n'a pas encore traités.
+ */
+public final class InputPrediction {
+    private final int[] sequences;
+    private final int[] positions;
+
+    /**
+     * Indice du plus ancien mouvement non confirmé, nombre de mouvements
+     * non confirmés
+     */
+    private int oldest = 0;
+    private int count = 0;
+
+    private int nextSequence = 0;
+
+
+    /**
+     * @param capacity Nombre maximal de mouvements non confirmés conservés
+     *                 (les plus anciens sont oubliés au-delà)
+     */
+    public InputPrediction(int capacity) {
+        sequences = new int[capacity];
+        positions = new int[capacity];
+    }
+
+    /**
+     * Enregistre un mouvement de la raquette
+     *
+     * @param y Nouvelle position demandée
+     *
+     * @return Le numéro du mouvement, à envoyer au serveur
+     */
+    public synchronized int record(int y) {
+        int seq = nextSequence;
+        nextSequence = SequenceNumbers.next(nextSequence);
+
+        if(count == sequences.length) {
+            oldest = (oldest + 1) % sequences.length;
+            count--;
+        }
+
+        int i = (oldest + count) % sequences.length;
+        sequences[i] = seq;
+        positions[i] = y;
+        count++;
+
+        return seq;
+    }
+
+    /**
+     * Prend en compte la confirmation du serveur
+     *
+     * @param ackSequence Numéro du dernier mouvement traité par le serveur
+     * @param authoritativeY Position retenue par le serveur
+     *
+     * @return La position prédite de la raquette
+     */
+    public synchronized int reconcile(int ackSequence, int authoritativeY) {
+        // oubli des mouvements traités par le serveur
+        while(count > 0 && !SequenceNumbers.isNewer(sequences[oldest], ackSequence)) {
+            oldest = (oldest + 1) % sequences.length;
+            count--;
+        }
+
+        // on rejoue les mouvements restants par dessus l'état du serveur
+        int y = authoritativeY;
+        for(int i = 0; i < count; i++)
+            y = MatchSimulation.clampPaddle(positions[(oldest + i) % positions.length]);
+
+        return y;
+    }
+
+    /**
+     * Nombre de mouvements pas encore confirmés par le serveur
+     */
+    public synchronized int getPendingCount() {
+        return count;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  InputSequence.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+import network.SequenceNumbers;
+
+
+/**
+ * Côté serveur : suit les commandes numérotées d'un joueur distant.
+ *
+ * Les commandes plus anciennes que la dernière appliquée sont rejetées, et
+ * le numéro de la dernière commande appliquée doit être renvoyé au joueur
+ * pour qu'il puisse corriger sa prédiction (cf. InputPrediction).
+ */
+public final class InputSequence {
+    private int lastApplied = 0;
+    private boolean received = false;
+    private boolean ackPending = false;
+
+
+    /**
+     * Indique si une commande doit être appliquée, et la note comme telle
+     *
+     * @param seq Numéro de la commande
+     *
+     * @return false si une commande plus récente a déjà été appliquée
+     */
+    public synchronized boolean accept(int seq) {
+        if(received && !SequenceNumbers.isNewer(seq, lastApplied))
+            return false;
+
+        received = true;
+        lastApplied = seq;
+        ackPending = true;
+
+        return true;
+    }
+
+    public synchronized int getLastApplied() {
+        return lastApplied;
+    }
+
+    /**
+     * Indique si un accusé de réception doit être envoyé (une fois par
+     * commande appliquée au plus)
+     */
+    public synchronized boolean takeAckPending() {
+        boolean pending = ackPending;
+        ackPending = false;
+
+        return pending;
+    }
+}
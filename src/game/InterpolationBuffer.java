@@ -0,0 +1,185 @@
+/*
+ *  InterpolationBuffer.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+import game.objects.GameObject;
+
+
+/**
+ * Historique horodaté des positions d'un objet reçues du serveur.
+ *
+ * Le client affiche l'objet avec un léger retard : sa position est alors
+ * interpolée entre les deux positions reçues qui encadrent l'instant
+ * affiché, ce qui masque l'irrégularité de l'arrivée des paquets. Si les
+ * paquets viennent à manquer, la position est extrapolée pendant un court
+ * moment à partir des deux dernières reçues.
+ *
+ * Les dates sont celles de System.nanoTime().
+ */
+public final class InterpolationBuffer {
+    private final long[] times;
+    private final int[] xs, ys;
+
+    /**
+     * Indice de la plus récente position, nombre de positions conservées
+     */
+    private int newest = -1;
+    private int count = 0;
+
+    /**
+     * Durée maximale d'extrapolation, en nanosecondes
+     */
+    private final long maxExtrapolation;
+
+    /**
+     * Au-delà de cette distance entre deux positions successives, l'objet
+     * est considéré comme téléporté : l'historique est oublié
+     */
+    private final int teleportDistance;
+
+
+    /**
+     * @param capacity Nombre de positions conservées
+     * @param maxExtrapolation Durée maximale d'extrapolation, en nanosecondes
+     * @param teleportDistance Distance au-delà de laquelle on n'interpole pas
+     */
+    public InterpolationBuffer(int capacity, long maxExtrapolation, int teleportDistance) {
+        if(capacity < 2)
+            throw new IllegalArgumentException("Capacité incorrecte : doit être supérieure à 1");
+
+        times = new long[capacity];
+        xs = new int[capacity];
+        ys = new int[capacity];
+
+        this.maxExtrapolation = maxExtrapolation;
+        this.teleportDistance = teleportDistance;
+    }
+
+    /**
+     * Enregistre une position reçue
+     *
+     * @param time Date de la position
+     * @param x Abscisse
+     * @param y Ordonnée
+     */
+    public void add(long time, int x, int y) {
+        if(count > 0) {
+            // une position plus ancienne que la dernière reçue est inutile
+            if(time - times[newest] < 0)
+                return;
+
+            if(Math.abs(x - xs[newest]) > teleportDistance
+               || Math.abs(y - ys[newest]) > teleportDistance)
+                clear();
+        }
+
+        newest = (newest + 1) % times.length;
+        count = Math.min(count + 1, times.length);
+
+        times[newest] = time;
+        xs[newest] = x;
+        ys[newest] = y;
+    }
+
+    /**
+     * Oublie toutes les positions enregistrées
+     */
+    public void clear() {
+        newest = -1;
+        count = 0;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Place l'objet à la position qu'il avait à la date donnée
+     *
+     * @param renderTime Date à afficher
+     * @param target Objet à déplacer
+     *
+     * @return false si aucune position n'est connue (l'objet n'est pas déplacé)
+     */
+    public boolean apply(long renderTime, GameObject target) {
+        if(count == 0)
+            return false;
+
+        int after = newest;
+
+        // date plus récente que la dernière position : extrapolation
+        if(renderTime - times[after] >= 0) {
+            extrapolate(renderTime, target);
+            return true;
+        }
+
+        // on recherche les deux positions qui encadrent la date
+        for(int i = 1; i < count; i++) {
+            int before = index(newest - i);
+
+            if(renderTime - times[before] >= 0) {
+                interpolate(before, after, renderTime, target);
+                return true;
+            }
+
+            after = before;
+        }
+
+        // date plus ancienne que la plus vieille position connue
+        target.setPos(xs[after], ys[after]);
+        return true;
+    }
+
+    private void interpolate(int before, int after, long renderTime, GameObject target) {
+        long span = times[after] - times[before];
+        long elapsed = renderTime - times[before];
+
+        target.setPos(lerp(xs[before], xs[after], elapsed, span),
+                      lerp(ys[before], ys[after], elapsed, span));
+    }
+
+    private void extrapolate(long renderTime, GameObject target) {
+        if(count < 2) {
+            target.setPos(xs[newest], ys[newest]);
+            return;
+        }
+
+        int previous = index(newest - 1);
+        long span = times[newest] - times[previous];
+        long elapsed = span + Math.min(renderTime - times[newest], maxExtrapolation);
+
+        target.setPos(lerp(xs[previous], xs[newest], elapsed, span),
+                      lerp(ys[previous], ys[newest], elapsed, span));
+    }
+
+    private static int lerp(int from, int to, long elapsed, long span) {
+        if(span <= 0)
+            return to;
+
+        return from + (int) ((to - from) * elapsed / span);
+    }
+
+    private int index(int i) {
+        return (i + times.length) % times.length;
+    }
+}
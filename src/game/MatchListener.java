@@ -1,5 +1,5 @@
 /*
- *  GraphicObject.java
+ *  MatchListener.java
  *
  *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
  *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
@@ -20,40 +20,40 @@
  *  MA 02110-1301, USA.
  */
 
-package game.objects;
+package game;
 
-import java.awt.Dimension;
-import java.awt.Graphics;
-import java.awt.Point;
-import java.awt.Rectangle;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
-import javax.imageio.ImageIO;
+import game.Constants.State;
 
 
-public abstract class GraphicObject extends Rectangle {
-    private static final long serialVersionUID = 1L;
-    
-    protected BufferedImage img;
-
-
-    public GraphicObject(String img) throws IOException {
-        this.img = ImageIO.read(new File(img));
-
-        setSize(this.img.getWidth(), this.img.getHeight());
-    }
-
-    public void setPos(int x, int y) {
-        this.x = x;
-        this.y = y;
-    }
-
-    public void drawOn(Graphics g) {
-        g.drawImage(img, x, y, null);
-    }
-
-    public Rectangle getZone() {
-        return new Rectangle(x, y, (int) getWidth(), (int) getHeight());
-    }
+/**
+ * Reçoit les événements d'une partie simulée par MatchSimulation, pour
+ * les transmettre au joueur distant, jouer les sons, etc.
+ */
+public interface MatchListener {
+    /**
+     * La balle a touché une raquette ou le mur amovible
+     */
+    void onBallContact();
+
+    /**
+     * Le mur amovible est apparu, a disparu ou a été déplacé
+     */
+    void onWallMoved();
+
+    /**
+     * La balle a touché le fond du terrain, derrière une des raquettes
+     */
+    void onBackWallTouched();
+
+    /**
+     * Les scores ont changé
+     */
+    void onScoreChanged();
+
+    /**
+     * L'état de la partie a changé
+     *
+     * @param newState Nouvel état
+     */
+    void onStateChanged(State newState);
 }
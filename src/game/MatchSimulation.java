@@ -0,0 +1,440 @@
+/*
+ *  MatchSimulation.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+import game.Constants.Level;
+import game.Constants.State;
+import game.objects.Ball;
+import game.objects.Player;
+import game.objects.Wall;
+import java.util.Random;
+
+
+/**
+ * Règles du jeu : déplacement de la balle, collisions, points marqués.
+ *
+ * La simulation ne dessine rien et n'envoie rien : elle prévient son
+ * listener de tout ce qui se passe. Elle ne dépend pas d'AWT et n'alloue
+ * rien à chaque pas : c'est elle qu'utilisent MirrorPong, le serveur dédié
+ * et les benchmarks.
+ */
+public final class MatchSimulation {
+    /**
+     * Compensation de latence : nombre maximal de ticks conservés dans
+     * l'historique de la balle, et retard maximal compensé (ms)
+     */
+    private static final int HISTORY_SIZE = 256;
+    private static final int MAX_LATENCY = 250;
+
+    private final Ball ball;
+    private final Player player1, player2;
+    private final Wall wall;
+
+    /**
+     * Dimensions du terrain
+     */
+    private final int width, height;
+
+    /**
+     * Zone de jeu
+     */
+    private final int planeX, planeY, planeWidth, planeHeight;
+
+    private final MatchListener listener;
+
+    private final Random random = new Random();
+
+    private State state = State.WAITING;
+
+    private Level level = Level.MEDIUM;
+
+    /**
+     * Nombre de points à atteindre pour remporter le match
+     */
+    private int maxPoints = 1;
+
+    /**
+     * Fréquence à laquelle step() est appelée
+     */
+    private int tickRate = Constants.REFERENCE_TICK_RATE;
+
+    /**
+     * Le mur amovible change d'état en moyenne une fois tous les
+     * wallChance ticks
+     */
+    private int wallChance = 200;
+
+    /**
+     * Positions de la balle aux derniers ticks, et balle "fantôme" placée là
+     * où un joueur distant la voyait
+     */
+    private final PositionHistory ballHistory = new PositionHistory(HISTORY_SIZE);
+    private final Ball seenBall = new Ball();
+    private long tick = 0;
+
+    /**
+     * Retard, en millisecondes, de ce que voit chaque joueur sur la
+     * simulation (0 pour un joueur local)
+     */
+    private int latency1 = 0, latency2 = 0;
+
+    /**
+     * Nombre de ticks depuis lesquels la balle est retenue contre le mur
+     * du fond, en attendant de savoir si le joueur distant l'a renvoyée
+     */
+    private int heldTicks = 0;
+
+
+    /**
+     * Crée une partie avec ses propres objets, raquettes en place
+     *
+     * @param width Largeur du terrain
+     * @param height Hauteur du terrain
+     * @param listener Destinataire des événements de la partie
+     */
+    public MatchSimulation(int width, int height, MatchListener listener) {
+        this(width, height, new Ball(), new Player(1), new Player(2),
+             new Wall(width - 2 * Constants.EFFECTS_ZONE_MARGIN,
+                      height - 2 * Constants.EFFECTS_ZONE_MARGIN,
+                      Constants.EFFECTS_ZONE_MARGIN),
+             listener);
+
+        player1.setPos(35, height / 2 - 25);
+        player2.setPos(width - 45, height / 2 - 25);
+    }
+
+    /**
+     * Crée une partie qui fait évoluer les objets donnés (ceux qu'affiche
+     * MirrorPong par exemple)
+     */
+    public MatchSimulation(int width, int height, Ball ball, Player player1,
+                           Player player2, Wall wall, MatchListener listener) {
+        this.width = width;
+        this.height = height;
+        this.ball = ball;
+        this.player1 = player1;
+        this.player2 = player2;
+        this.wall = wall;
+        this.listener = listener;
+
+        planeX = 15;
+        planeY = 15;
+        planeWidth = width;
+        planeHeight = height - 30;
+
+        resetBall();
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Fixe le nombre de points à atteindre pour gagner une partie
+     *
+     * @param max Nombre de points à atteintre pour gagner une partie
+     *
+     * @throws IllegalArgumentException Si le nombre de points est strictement
+     *                                  inférieur à 1
+     */
+    public void setMaxPoints(int max) {
+        if(max < 1)
+            throw new IllegalArgumentException("Nombre de points maximal incorrect : doit être supérieur à 0");
+
+        maxPoints = max;
+    }
+
+    /**
+     * Indique à quelle fréquence step() sera appelée, pour que la partie
+     * se déroule à la même vitesse quelle que soit cette fréquence
+     *
+     * @param ticksPerSecond Nombre d'appels à step() par seconde
+     *
+     * @throws IllegalArgumentException Si la fréquence est strictement
+     *                                  inférieure à 1
+     */
+    public void setTickRate(int ticksPerSecond) {
+        if(ticksPerSecond < 1)
+            throw new IllegalArgumentException("Fréquence incorrecte : doit être supérieure à 0");
+
+        tickRate = ticksPerSecond;
+        wallChance = Math.max(1, 200 * tickRate / Constants.REFERENCE_TICK_RATE);
+    }
+
+    /**
+     * Ramène une position de raquette dans les limites du terrain. C'est la
+     * règle appliquée par le serveur aux mouvements reçus, et celle que le
+     * client reproduit pour prédire la position de sa raquette.
+     */
+    public static int clampPaddle(int y) {
+        return Math.max(0, Math.min(y, Constants.FIELD_HEIGHT - Constants.RACKET_HEIGHT));
+    }
+
+    /**
+     * Indique avec quel retard un joueur voit la partie : au moment où l'on
+     * reçoit la position de sa raquette, il la plaçait face à une balle
+     * vieille de ce retard. Les contacts avec sa raquette sont alors testés
+     * contre la position qu'avait la balle à ce moment-là.
+     *
+     * @param player Joueur concerné
+     * @param millis Retard en millisecondes (aller-retour réseau et retard
+     *               de l'affichage du client), limité à MAX_LATENCY
+     */
+    public void setLatency(Player player, int millis) {
+        int latency = Math.max(0, Math.min(millis, MAX_LATENCY));
+
+        if(player == player1)
+            latency1 = latency;
+        else
+            latency2 = latency;
+    }
+
+    public Ball getBall() {
+        return ball;
+    }
+
+    public Player getPlayer1() {
+        return player1;
+    }
+
+    public Player getPlayer2() {
+        return player2;
+    }
+
+    public Wall getWall() {
+        return wall;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return Nombre de pas effectués balle en jeu depuis le début
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Change l'état de la partie et en prévient le listener
+     *
+     * @param newState Nouvel état
+     */
+    public void setState(State newState) {
+        state = newState;
+
+        listener.onStateChanged(newState);
+    }
+
+    /**
+     * Lance la balle si la partie attend d'être (re)démarrée
+     *
+     * @return true si la balle a été lancée
+     */
+    public boolean serve() {
+        if(state != State.READY)
+            return false;
+
+        // comme ça la balle n'est pas tout le temps lancée du même côté
+        ball.setSpeed(random.nextBoolean() ? 4 : -4, 2);
+
+        setState(State.STARTED); // demarre le jeu
+
+        return true;
+    }
+
+    /**
+     * Avance la partie d'un pas : déplacement de la balle, vérification
+     * des collisions et gestion du mur "amovible".
+     */
+    public void step() {
+        // si le jeu est en pause, pas besoin de bouger la balle ou de
+        // vérifier les collisions
+        if(state != State.READY && state != State.STARTED)
+            return;
+
+        if(heldTicks == 0)
+            ball.move(Constants.REFERENCE_TICK_RATE, tickRate);
+
+        ballHistory.record(++tick, ball.x, ball.y);
+
+        checkCollisions();
+
+        // gestion du mur "amovible" : seulement à partir de medium
+        if(random.nextInt(wallChance) == 0 && level.compareTo(Level.MEDIUM) >= 0) {
+            wall.toggleVisibility();
+
+            if(wall.isVisible()) {
+                wall.move(random);
+
+                // pour éviter que la mur apparaisse sur la balle
+                while(wall.intersects(ball))
+                    wall.move(random);
+            }
+
+            listener.onWallMoved();
+        }
+    }
+
+    /**
+     * Position la balle au centre du terrain, avec une vitesse nulle.
+     */
+    public void resetBall() {
+        ball.x = width / 2;
+        ball.y = height / 2;
+
+        ball.setSpeed(0, 0);
+
+        ballHistory.clear();
+        heldTicks = 0;
+    }
+
+    /**
+     * Retard d'un joueur sur la simulation, en ticks
+     */
+    private int rewindTicks(Player player) {
+        int latency = player == player1 ? latency1 : latency2;
+
+        return Math.min(latency * tickRate / 1000, HISTORY_SIZE - 1);
+    }
+
+    /**
+     * Regarde s'il n'y a pas eu de collision entre la balle et :
+     *  - les murs
+     *  - le "mur amovible"
+     *  - les raquettes des joueurs
+     */
+    private void checkCollisions() {
+        checkPlayerCollision(player1);
+        checkPlayerCollision(player2);
+        checkWallCollision();
+        checkWalls();
+    }
+
+    /**
+     * Teste la collision entre la balle et un joueur,
+     * et lance les actions associées si elle est avérée.
+     *
+     * @param player Joueur dont on veut tester la collision avec la balle.
+     */
+    private void checkPlayerCollision(Player player) {
+        Ball seen = ball;
+        int rewind = rewindTicks(player);
+
+        if(rewind > 0) {
+            // la balle fantôme reste en contact après le rebond : seule une
+            // balle qui vient vers le joueur peut le toucher
+            boolean rightSide = player.x > width / 2;
+            if(rightSide != (ball.getSpeedX() > 0))
+                return;
+
+            if(ballHistory.restore(tick - rewind, seenBall))
+                seen = seenBall;
+        }
+
+        if(!player.intersects(seen))
+            return;
+
+        int racketHit = (seen.y - (player.y + 25)) / 7;
+        heldTicks = 0;
+        speedBallUp(racketHit);
+
+        listener.onBallContact();
+    }
+
+    private void checkWallCollision() {
+        if(!wall.isVisible() || !wall.intersects(ball))
+            return;
+
+        int racketHit = (ball.y - (wall.y + 25)) / 7;
+        speedBallUp(racketHit);
+
+        listener.onBallContact();
+    }
+
+    private void speedBallUp(int hit) {
+        int speedY = ball.getSpeedY();
+
+        // à partir de easy, on augmente la vitesse
+        if(level.compareTo(Level.EASY) >= 0)
+            speedY += hit;
+
+        ball.setSpeed(-ball.getSpeedX(), speedY);
+    }
+
+    /**
+     * Vérifie que la balle ne soit pas en collision avec un mur.
+     */
+    private void checkWalls() {
+        int ballLeft = ball.getLeft();
+        int ballTop = ball.getTop();
+        int ballRight = ball.x + ball.getWidth();
+        int ballBottom = ball.y;
+
+        // haut ou bas : la balle rebondit
+        if (ballTop <= planeY || ballBottom >= planeHeight) {
+            ball.setSpeed(ball.getSpeedX(), -ball.getSpeedY());
+        // gauche ou droit
+        } else if (ballLeft <= planeX || ballRight >= planeWidth) {
+            // une balle retenue puis renvoyée repart de contre le mur
+            boolean towardsRight = ball.getSpeedX() >= 0;
+            if(towardsRight != (ballRight >= planeWidth))
+                return;
+
+            // le joueur distant n'a peut-être pas encore vu la balle passer :
+            // on la retient le temps qu'il ait pu la renvoyer
+            Player defender = towardsRight ? player2 : player1;
+            if(heldTicks < rewindTicks(defender)) {
+                heldTicks++;
+                return;
+            }
+
+            listener.onBackWallTouched();
+
+            // un point a été marqué
+            onMiss();
+        }
+    }
+
+    /**
+     * La balle a heurté un mur (derrière un des deux pavés).
+     * On regarde de quel côté la balle touche le mur et on met les scores à
+     * jour.
+     */
+    private void onMiss() {
+        if (ball.getSpeedX() >= 0)
+            player1.incScore();
+        else
+            player2.incScore();
+
+        listener.onScoreChanged();
+
+        // ici, soit le jeu est terminé, soit on est en attente de la relance
+        setState((player1.getScore() == maxPoints || player2.getScore() == maxPoints)
+                 ? State.FINISHED
+                 : State.READY);
+
+        resetBall();
+    }
+}
@@ -22,18 +22,21 @@
 
 package game;
 
-import game.objects.Wall;
 import game.objects.Player;
+import game.Constants.Level;
 import game.Constants.State;
+import game.protocol.BinaryProtocol;
+import game.protocol.Snapshot;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
-import java.util.Random;
 
-import network.Connection;
+import network.AsyncTransport;
+import network.ChannelConnection;
 import network.Paquet;
+import network.SendRateController;
 
 
-public final class MirrorPong extends PongBase {
+public final class MirrorPong extends PongBase implements MatchListener {
 	/**
 	 * ID de sérialisation
 	 */
@@ -46,25 +49,41 @@ public final class MirrorPong extends PongBase {
 	 */
 	private int maxPoints = 1;
 
+    /**
+     * Fréquence de simulation (en ticks par seconde)
+     */
+    private int tickRate = Constants.REFERENCE_TICK_RATE;
 
     /**
-     * Niveaux de difficulté disponibles :
-     *  - Noob : jeu normal, vitesse de balle fixe
-     *  - Easy : la vitesse augmente en fonction du temps de jeu
-     *  - Medium : un mur apparait de temps en temps
-     *  - Hard : trois raquettes ?
-     *
-     * Bien évidemment, les difficultés s'aditionnent ...
+     * Cadence la simulation (cf. run())
      */
-    private enum Level {
-        NOOB, EASY, MEDIUM, HARD
-    }
-    
+    private volatile TickScheduler scheduler;
+
+    /**
+     * Fréquence d'envoi de l'état de la partie, adaptée au lien
+     */
+    private SendRateController sendRate;
+
     /**
      * Difficulté courante
      */
     private Level level = Level.MEDIUM;
 
+    /**
+     * Règles du jeu, appliquées aux objets affichés
+     */
+    private MatchSimulation simulation;
+
+    /**
+     * Mouvements numérotés reçus du client
+     */
+    private final InputSequence clientInputs = new InputSequence();
+
+    /**
+     * Etat de la partie envoyé au client en mode binaire
+     */
+    private final Snapshot snapshot = new Snapshot();
+
 
 	/**
 	 * Programme principal
@@ -101,13 +120,20 @@ public final class MirrorPong extends PongBase {
      */
     @Override
     protected void initGame() {
-        // lancement du serveur
+        // lancement du serveur (la connexion n'est utilisée que par le
+        // thread d'E/S)
 		try {
-			sock = new Connection(serverPort);
+			setTransport(new AsyncTransport(new ChannelConnection(serverPort)));
 		} catch (Exception e) {
 			throw new IllegalStateException("Erreur au lancement du serveur : " + e.getLocalizedMessage());
 		}
 
+        simulation = new MatchSimulation(getWidth(), getHeight(), ball,
+                                         player1, player2, wall, this);
+        simulation.setLevel(level);
+        simulation.setMaxPoints(maxPoints);
+        simulation.setTickRate(tickRate);
+
         // attente d'un client
         waitClient();
 
@@ -119,15 +145,23 @@ public final class MirrorPong extends PongBase {
         return player1;
     }
 
+    @Override
+    protected TickScheduler getScheduler() {
+        return scheduler;
+    }
+
     /**
      * Attent qu'un client se connecte pour enregistrer son adresse et son
-     * port
+     * port.
+     *
+     * Si le client propose le protocole binaire, on le lui confirme en
+     * renvoyant la même proposition. Faute de confirmation de sa part, on
+     * attend qu'il se rabatte sur le mode texte.
      */
     private void waitClient() {
         // attente de la connexion du second joueur
-        Paquet p = null;
-        String msg = "";
-        while(!msg.equals("HELLO")) {
+        while(true) {
+            Paquet p;
             try {
                 p = sock.receive();
             } catch (IOException e) {
@@ -137,11 +171,33 @@ public final class MirrorPong extends PongBase {
             if(p == null)
                 continue;
 
-            msg = p.getMessage();
-        }
+            String msg = p.getMessage();
+            if(!msg.equals(Constants.MSG_HELLO) && !msg.equals(Constants.MSG_HELLO_BINARY))
+                continue;
+
+            setDistantHost(p.getAddress());
+            setDistantPort(p.getPort());
+
+            if(msg.equals(Constants.MSG_HELLO))
+                return;
 
-        setDistantHost(p.getDatagram().getAddress());
-        setDistantPort(p.getDatagram().getPort());
+            try {
+                long sentAt = System.currentTimeMillis();
+                sock.sendAndWaitConfirm(getDistantHost(), getDistantPort(),
+                                        Constants.MSG_HELLO_BINARY, 500);
+                setProtocol(new BinaryProtocol());
+                startSession();
+
+                // la confirmation donne une mesure de l'aller-retour : le
+                // client voit la balle avec ce retard plus celui de son
+                // affichage
+                long rtt = System.currentTimeMillis() - sentAt;
+                simulation.setLatency(player2, (int) rtt + Constants.INTERPOLATION_DELAY);
+                return;
+            } catch (IOException e) {
+                // le client n'a pas reçu la réponse : il reviendra en mode texte
+            }
+        }
     }
     
     public void setLevel(String level) {
@@ -177,81 +233,110 @@ public final class MirrorPong extends PongBase {
         serverPort = port;
     }
 
+    /**
+     * Définit la fréquence de la simulation. La vitesse de la partie n'en
+     * dépend pas, seulement sa précision.
+     *
+     * @param ticksPerSecond Nombre de ticks de simulation par seconde
+     *
+     * @throws IllegalArgumentException Si la fréquence est inférieure ou
+     *                                  égale à 0
+     */
+    public void setTickRate(int ticksPerSecond) {
+        if(ticksPerSecond <= 0)
+            throw new IllegalArgumentException("Fréquence incorrecte");
+
+        tickRate = ticksPerSecond;
+    }
+
     /**
      * On met à jour les mouvements des joueurs dans l'affichage après avoir
-     * effectué quelques vérifications sur l'état du jeu et déplacé la balle.
+     * fait avancer la partie.
+     *
+     * La simulation avance à fréquence fixe, en rattrapant les ticks
+     * manqués si la boucle a pris du retard. L'affichage et l'envoi de la
+     * position de la balle n'ont lieu qu'une fois par tour de boucle.
      *
      * @note Sera appelée par le thread.
      */
     @Override
     public void run() {
         Paquet p;
-        Random r = new Random();
-        while (currentState() != State.FINISHED) {
-            repaint();
-            
-			try {
-				p = sock.tryReceive(2);
-			} catch (IOException e) {
-				p = null;
-			}
 
-            if(p != null && p.getMessage() != null)
-                executeCmd(p.getMessage());
+        scheduler = new TickScheduler(tickRate);
+        sendRate = new SendRateController(Math.min(Constants.MIN_SEND_RATE, tickRate), tickRate);
 
-            // si le jeu est en pause, pas besoin de bouger la balle ou de
-            // vérifier les collisions
-			if(currentState() == State.PAUSED)
-				continue;
+        while (currentState() != State.FINISHED && !isPeerGone()) {
+            int ticks = scheduler.awaitTicks();
 
-            ball.move();
+            boolean stalled = checkStall(System.nanoTime());
 
-			checkCollisions();
+            // tout ce qui est envoyé pendant ce tour part dans un seul
+            // datagramme, à la fin
+            beginFrame();
 
-            // gestion du mur "amovible" : seulement à partir de medium
-            if(r.nextInt(200) == 34 && level.compareTo(Level.MEDIUM) >= 0)
-            {
-                wall.toggleVisibility();
+            // traitement des paquets arrivés depuis le dernier tour, sans
+            // attendre (ceux d'inconnus sont ignorés)
+            try {
+                while((p = sock.poll()) != null) {
+                    if(acceptSource(p))
+                        executeCmd(p);
+                    else
+                        p.release();
+                }
+            } catch (IOException e) {
+                // on réessaiera au prochain tour
+            }
 
-                if(wall.isVisible()) {
-                    wall.move();
+            // notre raquette, en mode texte
+            sampleInput();
 
-                    // pour éviter que la mur apparaisse sur la balle
-                    while(wall.getZone().intersects(ball.getZone()))
-                        wall.move();
-                }
+            // confirmation au client du dernier mouvement appliqué
+            if(clientInputs.takeAckPending())
+                sendInputAck(player2, clientInputs.getLastApplied());
 
-                // envoi des infos du mur
-                String msg = String.format("%s %d %d %s", Constants.MSG_WALL_POS,
-                                           wall.x, wall.y,
-                                           wall.isVisible() ? "on" : "off");
-                sendToDistantPlayer(msg);
-            }
+            updateClientLatency();
 
-            // envoi de la position de la balle
-            sendToDistantPlayer(String.format("%s %d %d", Constants.MSG_BALL,
-                                                          ball.x, ball.y));
+            for(int i = 0; i < ticks; i++)
+                simulation.step();
 
-            wait(8);
+            // envoi de la position de la balle, à la fréquence que le lien
+            // supporte
+            long now = System.nanoTime();
+            if(stalled || isBlinking(now) || currentState() == State.PAUSED)
+                sendRate.suspend(now);
+            sendRate.update(getLinkStats(), now);
+            if(sendRate.shouldSend(now))
+                sendMatchState();
+
+            setFrameTick(simulation.getTick());
+            endFrame();
         }
 
-        repaint();
+        // le client doit connaître le score et l'état final (s'il est
+        // encore là)
+        boolean finished = currentState() == State.FINISHED;
+        if(finished)
+            drainReliable(2000);
+
+        disconnect();
 
         // partie terminée
-        onGameOver();
+        if(finished)
+            onGameOver();
+        else
+            onConnectionLost();
     }
 
     /**
-     * Regarde s'il n'y a pas eu de collision entre la balle et :
-     *  - les murs
-     *  - le "mur amovible"
-     *  - les raquettes des joueurs
+     * Le retard du client suit le temps d'aller-retour mesuré, dès qu'il
+     * y en a une mesure (sinon celui de la poignée de main est conservé)
      */
-    private void checkCollisions() {
-        checkPlayerCollision(player1);
-        checkPlayerCollision(player2);
-        checkWallCollision(wall);
-        checkWalls();
+    private void updateClientLatency() {
+        long srtt = getLinkStats().getSrtt();
+
+        if(srtt >= 0)
+            simulation.setLatency(player2, (int) (srtt / 1000000) + Constants.INTERPOLATION_DELAY);
     }
 
 	/**
@@ -263,115 +348,89 @@ public final class MirrorPong extends PongBase {
 	 */
 	@Override
 	public void mouseClicked(MouseEvent e) {
-		if (currentState() != State.READY)
-			return;
-
-		ball.getSpeed().x = 4;
-		ball.getSpeed().y = 2;
-
-        // comme ça la balle n'est pas tout le temps lancée du même côté
-        if(System.currentTimeMillis() % 2 == 0)
-            ball.getSpeed().x *= -1;
-
-        changeState(State.STARTED); // demarre le jeu
+        // la fenêtre est affichée avant la création de la simulation
+        if(simulation != null)
+            simulation.serve();
     }
 
-	/**
-	 * Teste la collision entre la balle et un joueur,
-	 * et lance les actions associées si elle est avérée.
-	 *
-	 * @param player Joueur dont on veut tester la collision avec la balle.
-	 */
-	private void checkPlayerCollision(Player player) {
-		if(!checkCollision(player))
-			return;
+    /**
+     * Chaque fois que l'état du jeu change, on passe par la simulation qui
+     * nous préviendra en retour (cf. onStateChanged())
+     *
+     * @param newState Nouvel état du jeu
+     */
+    @Override
+    protected void changeState(State newState) {
+        simulation.setState(newState);
+    }
 
-		int racketHit = (ball.y - (player.y + 25)) / 7;
-		speedBallUp(racketHit);
+    /**
+     * Mouvement numéroté du client : appliqué s'il est plus récent que le
+     * dernier reçu, puis confirmé au prochain tour de boucle
+     */
+    @Override
+    public void onInputMessage(int player, int sequence, int y) {
+        if(player == player2.getId() && clientInputs.accept(sequence))
+            player2.y = MatchSimulation.clampPaddle(y);
+    }
 
-        sendToDistantPlayer(Constants.MSG_CONTACT);
+    @Override
+    public void onBallContact() {
+        sendContact();
         Sound.play(Constants.SOUND_CONTACT);
     }
 
-    private void checkWallCollision(Wall wall) {
-        if(!wall.isVisible() || !wall.intersects(ball.getZone()))
+    /**
+     * En mode binaire, l'état complet de la partie part à chaque tour (s'il
+     * a changé depuis le dernier acquitté par le client). En mode texte,
+     * seule la position de la balle part à chaque tour, le reste est envoyé
+     * quand il change.
+     */
+    private void sendMatchState() {
+        if(!usesSnapshots()) {
+            sendBall();
             return;
+        }
 
-		int racketHit = (ball.y - (wall.y + 25)) / 7;
-		speedBallUp(racketHit);
+        snapshot.capture(ball, player1, player2, wall, simulation.getState());
+        sendSnapshot(snapshot);
+    }
 
-		sendToDistantPlayer(Constants.MSG_CONTACT);
-		Sound.play(Constants.SOUND_CONTACT);
-	}
+    @Override
+    protected boolean resendUnacknowledgedState() {
+        if(!usesSnapshots())
+            return false;
 
-    private void speedBallUp(int hit) {
-        // à partir de easy, on augmente la vitesse
-        if(level.compareTo(Level.EASY) >= 0)
-            ball.getSpeed().y += hit;
+        sendMatchState();
 
-		ball.getSpeed().x *= -1;
+        return !isSnapshotAcknowledged(snapshot);
     }
 
-	/**
-	 * Teste la collision entre la balle et la raquette d'un joueur
-	 *
-	 * @param joueur Position de la raquette du joueur
-	 *
-	 * @return True s'il y a collision, false sinon
-	 */
-	private boolean checkCollision(Player joueur) {
-		return joueur.getZone().intersects(ball.getZone());
-	}
-
-	/**
-	 * Vérifie que la balle ne soit pas en collision avec un mur.
-	 */
-	protected void checkWalls() {
-		int ballLeft = ball.x - (int) ball.getWidth() / 2;
-		int ballTop = ball.y - (int) ball.getHeight() / 2;
-		int ballRight = ball.x + (int) ball.getWidth();
-		int ballBottom = ball.y;
-
-        // haut ou bas : la balle rebondit
-		if (ballTop <= plane.y || ballBottom >= plane.height) {
-			ball.getSpeed().y *= -1;
-		// gauche ou droit
-        } else if (ballLeft <= plane.x || ballRight >= plane.width) {
-            // envoi de l'info "mur touché"
-            sendToDistantPlayer(Constants.MSG_WALL_TOUCHED);
-			onWallTouched();
-
-            // un point a été marqué
-            onMiss();
-		}
-	}
+    @Override
+    public void onWallMoved() {
+        // envoi des infos du mur
+        if(!usesSnapshots())
+            sendWallPos();
+    }
 
-	/**
-	 * La balle a heurté un mur (derrière un des deux pavés).
-	 * On regarde de quel côté la balle touche le mur, on met les scores à
-     * jour et on les envoie au client
-	 */
-	private void onMiss() {
-		if (ball.getSpeed().x >= 0)
-			player1.incScore();
-		else
-			player2.incScore();
-
-		// envoi des scores
-        String msg1 = String.format("%s %s %d", Constants.MSG_SCORE, player1,
-                                                player1.getScore());
-        String msg2 = String.format("%s %s %d", Constants.MSG_SCORE, player2,
-                                                player2.getScore());
-
-        sendToDistantPlayer(msg1);
-        sendToDistantPlayer(msg2);
-        
-        // ici, soit le jeu est terminé, soit on est en attente de la relance
-        changeState((player1.getScore() == maxPoints || player2.getScore() == maxPoints)
-                    ? State.FINISHED
-                    : State.READY);
+    @Override
+    public void onBackWallTouched() {
+        // envoi de l'info "mur touché"
+        sendWallTouched();
+
+        // le client doit clignoter en même temps que nous : on n'attend pas
+        // la fin du tour pour le prévenir
+        flushFrame();
+        onWallTouched();
+    }
 
-        resetBall();
+    @Override
+    public void onScoreChanged() {
+        // envoi des scores
+        if(!usesSnapshots()) {
+            sendScore(player1);
+            sendScore(player2);
+        }
     }
 
     /**
@@ -380,9 +439,10 @@ public final class MirrorPong extends PongBase {
      * @param newState Nouvel état du jeu
      */
     @Override
-    protected void changeState(State newState) {
+    public void onStateChanged(State newState) {
         super.changeState(newState);
 
-        sendToDistantPlayer(String.format("%s %s", Constants.MSG_STATE_CHANGED, newState));
+        if(!usesSnapshots())
+            sendState(newState);
     }
-}
\ No newline at end of file
+}
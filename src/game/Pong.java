@@ -24,16 +24,58 @@ package game;
 
 import game.objects.Player;
 import game.Constants.State;
+import game.protocol.BinaryProtocol;
 import java.io.IOException;
 import java.net.UnknownHostException;
 
-import network.Connection;
+import network.AsyncTransport;
+import network.ChannelConnection;
 import network.Paquet;
 
 
 public final class Pong extends PongBase {
     private static final long serialVersionUID = 7657998555042629676L;
 
+    /**
+     * Délai maximal entre deux affichages, en millisecondes
+     */
+    private static final int FRAME_DELAY = 5;
+
+    /**
+     * Durée pendant laquelle on extrapole la position d'un objet dont on
+     * ne reçoit plus de nouvelles, en nanosecondes
+     */
+    private static final long MAX_EXTRAPOLATION = 100000000L;
+
+    /**
+     * Retard de l'affichage sur les positions reçues, en nanosecondes
+     */
+    private long interpolationDelay = Constants.INTERPOLATION_DELAY * 1000000L;
+
+    /**
+     * Positions reçues de la balle et de la raquette adverse, affichées
+     * avec le retard ci-dessus
+     */
+    private final InterpolationBuffer ballPositions =
+        new InterpolationBuffer(32, MAX_EXTRAPOLATION, 200);
+    private final InterpolationBuffer racketPositions =
+        new InterpolationBuffer(32, MAX_EXTRAPOLATION, Integer.MAX_VALUE);
+
+    /**
+     * Les positions sont datées du tick du serveur qui les a produites,
+     * ramené à l'heure locale : l'irrégularité de leur arrivée n'est pas
+     * reportée à l'affichage. Sans entête de datagramme (mode texte), elles
+     * sont datées de leur réception.
+     */
+    private final ServerClock serverClock = new ServerClock(Constants.REFERENCE_TICK_RATE);
+    private long frameTime;
+    private boolean framed = false;
+
+    /**
+     * Mouvements de notre raquette pas encore confirmés par le serveur
+     */
+    private final InputPrediction prediction = new InputPrediction(128);
+
 
     /**
      * Programme principal
@@ -71,6 +113,21 @@ public final class Pong extends PongBase {
         setTitle("Pong");
     }
 
+    /**
+     * Définit le retard de l'affichage sur les positions reçues du serveur.
+     * Plus il est grand, mieux les irrégularités du réseau sont masquées.
+     *
+     * @param delay Retard en millisecondes
+     *
+     * @throws IllegalArgumentException Si le retard est négatif
+     */
+    public void setInterpolationDelay(int delay) {
+        if(delay < 0)
+            throw new IllegalArgumentException("Délai incorrect");
+
+        interpolationDelay = delay * 1000000L;
+    }
+
     /**
 	 * Initialisation du jeu. On réalise ici la connexion au serveur.
      * Cette méthode est appelée après l'initialisation de la partie graphique
@@ -79,9 +136,10 @@ public final class Pong extends PongBase {
      */
     @Override
     protected void initGame() {
-		// connexion au serveur
+		// connexion au serveur (la connexion n'est utilisée que par le thread
+		// d'E/S)
 		try{
-			sock = new Connection();
+			setTransport(new AsyncTransport(new ChannelConnection()));
 		} catch (IOException e) {
 			throw new IllegalStateException("Erreur à la connexion : " + e.getMessage());
 		}
@@ -97,24 +155,114 @@ public final class Pong extends PongBase {
 	@Override
 	public void run() {
 		Paquet p;
-		while (currentState() != State.FINISHED) {
+		while (currentState() != State.FINISHED && !isPeerGone()) {
+            // on attend le prochain paquet, puis on traite ceux qui seraient
+            // arrivés entre temps
 			try {
-				p = sock.tryReceive(2);
+				p = sock.tryReceive(FRAME_DELAY);
+
+                checkStall(System.nanoTime());
+
+                // les réponses (acquittements, changements d'état) et les
+                // mouvements de la souris partent ensemble en fin de tour
+                beginFrame();
+
+                while(p != null) {
+                    executeCmd(p);
+                    p = sock.poll();
+                }
 			} catch (IOException e) {
-				p = null;
+				// on réessaiera au prochain tour
 			}
 
-            if(p != null && p.getMessage() != null)
-                executeCmd(p.getMessage());
+            // dernière position de la souris, après la correction de la
+            // prédiction par les confirmations reçues
+            sampleInput();
 
-            repaint();
+            // le serveur sait ainsi quel tick nous avions reçu
+            acknowledgeSnapshots();
+            setFrameTick(getRemoteTick());
+            endFrame();
+            resumeIfSilent();
 
-            wait(5);
+            updatePositions();
         }
 
-        repaint();
+        boolean finished = currentState() == State.FINISHED;
+        if(finished)
+            drainReliable(500);
+
+        disconnect();
+
+        if(finished)
+            onGameOver();
+        else
+            onConnectionLost();
+    }
+
+    /**
+     * Place la balle et la raquette adverse là où elles étaient il y a
+     * interpolationDelay nanosecondes
+     */
+    private void updatePositions() {
+        long renderTime = System.nanoTime() - interpolationDelay;
+
+        ballPositions.apply(renderTime, ball);
+        racketPositions.apply(renderTime, player1);
+    }
+
+    @Override
+    public boolean onFrameMessage(int sequence, long tick) {
+        if(!super.onFrameMessage(sequence, tick))
+            return false;
+
+        frameTime = serverClock.onFrame(tick, getDatagramReceivedAt());
+        framed = true;
+
+        return true;
+    }
+
+    /**
+     * @return Date des positions du datagramme en cours de traitement
+     */
+    private long positionTime() {
+        return framed ? frameTime : getDatagramReceivedAt();
+    }
+
+    @Override
+    public void onBallMessage(int x, int y) {
+        ballPositions.add(positionTime(), x, y);
+    }
+
+    @Override
+    public void onMoveMessage(int player, int y) {
+        if(player == player1.getId())
+            racketPositions.add(positionTime(), player1.x, y);
+        else
+            super.onMoveMessage(player, y);
+    }
+
+    /**
+     * La raquette suit la souris sans attendre le serveur : le mouvement lui
+     * est envoyé numéroté pour qu'il puisse nous dire lequel il a appliqué
+     */
+    @Override
+    protected void onInputSampled(int y) {
+        int seq = prediction.record(y);
 
-        onGameOver();
+        player2.y = y;
+        sendInput(player2, seq);
+    }
+
+    /**
+     * La position corrigée par le serveur ne doit pas effacer un mouvement
+     * de la souris qu'il n'a pas encore pu voir : celui-ci reste affiché, et
+     * partira au prochain relevé
+     */
+    @Override
+    public void onInputAckMessage(int player, int sequence, int y) {
+        if(player == player2.getId())
+            player2.y = getPendingInput(prediction.reconcile(sequence, y));
     }
 
     @Override
@@ -126,16 +274,14 @@ public final class Pong extends PongBase {
     protected void onGamePause() {
         super.onGamePause();
 
-        sendToDistantPlayer(String.format("%s %s", Constants.MSG_STATE_CHANGED,
-                                                   currentState()));
+        sendState(currentState());
     }
 
     @Override
     protected void onGameResume() {
         super.onGameResume();
 
-        sendToDistantPlayer(String.format("%s %s", Constants.MSG_STATE_CHANGED,
-                                                   currentState()));
+        sendState(currentState());
     }
 
     @Override
@@ -145,15 +291,59 @@ public final class Pong extends PongBase {
         wall.setVisible(visible);
     }
 
+    /**
+     * Un espèce de handshake : on propose le protocole binaire au serveur.
+     * Un serveur récent nous renvoie la proposition, un ancien serveur
+     * l'ignore et on se rabat alors sur le protocole texte.
+     */
     private void waitServer() {
-        // un espèce de handshake
+        sendHello(Constants.MSG_HELLO_BINARY);
+
+        if(waitBinaryAccepted())
+            setProtocol(new BinaryProtocol());
+        else
+            sendHello(Constants.MSG_HELLO);
+    }
+
+    /**
+     * Envoie une demande de connexion au serveur jusqu'à ce qu'il en
+     * accuse réception
+     *
+     * @param hello Demande à envoyer
+     */
+    private void sendHello(String hello) {
         while(true) {
             try {
-                sock.sendAndWaitConfirm(getDistantHost(), getDistantPort(), "HELLO", 2000);
-                break;
+                sock.sendAndWaitConfirm(getDistantHost(), getDistantPort(), hello, 2000);
+                return;
             } catch (IOException e) {
                 showAlert("Erreur à l'envoi de la demande de connexion au serveur : " + e.getMessage());
             }
         }
     }
+
+    /**
+     * Attend que le serveur accepte le protocole binaire
+     *
+     * @return true si le serveur l'a accepté, false s'il ne s'est pas
+     *         manifesté à temps
+     */
+    private boolean waitBinaryAccepted() {
+        long deadline = System.currentTimeMillis() + 2000;
+        long remaining;
+
+        while((remaining = deadline - System.currentTimeMillis()) > 0) {
+            Paquet p;
+            try {
+                p = sock.tryReceive((int) remaining);
+            } catch (IOException e) {
+                continue;
+            }
+
+            if(p != null && p.getMessage().equals(Constants.MSG_HELLO_BINARY))
+                return true;
+        }
+
+        return false;
+    }
 }
\ No newline at end of file
@@ -26,28 +26,57 @@ import game.objects.Wall;
 import game.objects.Player;
 import game.Constants.State;
 import game.objects.Ball;
+import game.protocol.MessageListener;
+import game.protocol.MessageSender;
+import game.protocol.Protocol;
+import game.protocol.Snapshot;
+import game.protocol.SnapshotReceiver;
+import game.protocol.TextProtocol;
+import game.view.CachedLayer;
+import game.view.DirtyRegion;
+import game.view.RenderLoop;
+import game.view.Scene;
+import game.view.Sprite;
+import game.view.SpriteLayer;
+import game.view.TextCache;
+import java.awt.BorderLayout;
+import java.awt.Canvas;
 import java.awt.Color;
-import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Insets;
 import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
-import network.Connection;
+import game.protocol.BinaryProtocol;
+import network.LinkStats;
+import network.Paquet;
+import network.SequenceTracker;
+import network.SessionTokens;
+import network.Transport;
 
 
-public abstract class PongBase extends JFrame implements KeyListener, Runnable, MouseListener, MouseMotionListener {
+public abstract class PongBase extends JFrame implements KeyListener, Runnable, MouseListener, MouseMotionListener, MessageListener {
 
     /**
      * ID de sérialisation
@@ -60,9 +89,9 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     private Thread runner;
 
     /**
-     * Connexion au second joueur ou socket serveur
+     * Connexion au second joueur ou socket serveur (cf. setTransport())
      */
-    protected Connection sock;
+    protected Transport sock;
 
     /**
      * Adresse de l'hôte distant
@@ -74,18 +103,136 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
      */
     private int distantPlayerPort = 6000;
 
+    /**
+     * Protocole utilisé pour dialoguer avec le joueur distant. On reste en
+     * mode texte tant que la poignée de main n'a pas négocié mieux.
+     */
+    private Protocol protocol = new TextProtocol();
+
+    /**
+     * Encode et envoie les messages destinés au joueur distant
+     */
+    private final MessageSender sender = new MessageSender();
+
+    /**
+     * Instantanés reçus, et dernier appliqué
+     */
+    private final SnapshotReceiver snapshots = new SnapshotReceiver();
+    private final Snapshot appliedSnapshot = new Snapshot();
+    private boolean snapshotApplied = false;
+
+    /**
+     * Tick indiqué par le plus récent datagramme reçu
+     */
+    private long remoteTick = 0;
+
+    /**
+     * Heure de réception du datagramme en cours de traitement
+     */
+    private long datagramReceivedAt = System.nanoTime();
+
+    /**
+     * Affichage de la qualité du lien (touche I)
+     */
+    private volatile boolean linkOverlay = false;
+
+    /**
+     * Silence toléré du joueur distant, en millisecondes, et vrai s'il a
+     * annoncé son départ
+     */
+    private int idleTimeout = Constants.IDLE_TIMEOUT;
+    private volatile boolean peerGone = false;
+
+    /**
+     * Jeton de la session (cf. network.SessionTokens), et heure de la
+     * dernière demande de reprise envoyée
+     */
+    private volatile long sessionToken = SessionTokens.NONE;
+    private long lastResumeAt = System.nanoTime();
+
+    /**
+     * Durée d'un tour de boucle au-delà de laquelle la boucle est jugée
+     * bloquée (en nanosecondes), et début du dernier tour
+     */
+    private static final long STALL_THRESHOLD = 200000000L;
+    private long lastLoopAt = System.nanoTime();
+
+    /**
+     * Intervalle minimal entre deux relevés de la souris (un tick de
+     * référence), en nanosecondes
+     */
+    private static final long INPUT_INTERVAL = 1000000000L / Constants.REFERENCE_TICK_RATE;
+    private static final int NO_INPUT = Integer.MIN_VALUE;
+
+    /**
+     * Dernière position de la raquette donnée par la souris et pas encore
+     * relevée (écrite par le thread de l'interface, relevée par la boucle de
+     * jeu), et heure du dernier relevé
+     */
+    private final AtomicInteger pendingInput = new AtomicInteger(NO_INPUT);
+    private long lastInputAt = System.nanoTime() - INPUT_INTERVAL;
+
     /**
      * Etat actuel du jeu (lancé, en pause, etc.)
      */
-    private State state = State.WAITING;
+    private volatile State state = State.WAITING;
 
     protected Wall wall;
     protected Rectangle wallZone;
 
-    private Image offscreeni;
-    private Graphics offscreeng;
     protected Rectangle plane;
 
+    /**
+     * Surface de dessin et boucle d'affichage actif (cf. RenderLoop)
+     */
+    private Canvas canvas;
+    private RenderLoop renderLoop;
+
+    /**
+     * Fond du terrain, dessiné une fois par variante : lignes rouges
+     * pendant le clignotement, lignes du milieu seulement en cours de jeu
+     */
+    private static final int BACKGROUND_DEATH = 1;
+    private static final int BACKGROUND_LINES = 2;
+
+    private final CachedLayer background = new CachedLayer(4) {
+        @Override
+        protected void paint(Graphics2D g, int variant) {
+            paintBackground(g, variant);
+        }
+    };
+
+    /**
+     * Objets dessinés au dessus du fond, et zones à redessiner : celles qui
+     * ont changé pour l'image en cours et pour la précédente
+     */
+    private SpriteLayer rackets, field;
+    private DirtyRegion damage = new DirtyRegion();
+    private DirtyRegion lastDamage = new DirtyRegion();
+    private final DirtyRegion redraw = new DirtyRegion();
+
+    /**
+     * Ce qu'affiche la dernière image dessinée (hors objets)
+     */
+    private int drawnVariant = -1;
+    private int drawnScore1 = -1, drawnScore2 = -1;
+    private boolean drawnOverlay = false;
+
+    /**
+     * Largeur réservée à l'affichage de la qualité du lien
+     */
+    private static final int LINK_STATS_WIDTH = 330;
+
+    /**
+     * Polices, et textes déjà mis en forme (scores et messages d'état)
+     */
+    private static final Font SCORE_FONT = new Font("Dialog", Font.BOLD, 14);
+    private static final Font MESSAGE_FONT = new Font("Dialog", Font.BOLD, 40);
+    private static final Font STATS_FONT = new Font("Dialog", Font.PLAIN, 12);
+
+    private final TextCache texts = new TextCache();
+    private String scoreText1, scoreText2;
+
     /**
      * Joueurs
      */
@@ -94,9 +241,18 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     protected Ball ball;
 
     /**
-     * Utilisée pour faire clignoter le jeu
+     * Images des objets du terrain
      */
-    private boolean deathMode = false;
+    private Sprite racketP1Sprite, racketP2Sprite, wallSprite, ballSprite;
+
+    /**
+     * Clignotement du jeu : trois fois BLINK_PHASE en rouge, séparées par
+     * BLINK_PHASE en blanc, depuis blinkStartedAt. Il est dessiné par le
+     * thread d'affichage : la boucle de jeu ne s'arrête pas pendant ce temps.
+     */
+    private static final long BLINK_PHASE = 300000000L;
+    private static final long BLINK_DURATION = 6 * BLINK_PHASE;
+    private volatile long blinkStartedAt = System.nanoTime() - BLINK_DURATION;
 
 
 	/**
@@ -116,65 +272,101 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
 	 * Initialise la partie graphique.
 	 */
 	private void initGUI() {
+		// le dessin est fait par la boucle d'affichage, pas par repaint()
+		setIgnoreRepaint(true);
+		canvas = new Canvas();
+		canvas.setIgnoreRepaint(true);
+		getContentPane().add(canvas, BorderLayout.CENTER);
+
 		// caractéristiques de la fenêtre
 		setVisible(true);
-		setBounds(100, 100, 640, 480);
+		setBounds(100, 100, Constants.FIELD_WIDTH, Constants.FIELD_HEIGHT);
 		//setDefaultCloseOperation(EXIT_ON_CLOSE);
 		setResizable(false);
+		validate();
 
-		// ajout des listener
+		// ajout des listener : les évènements du Canvas sont transmis avec
+		// des coordonnées relatives à la fenêtre, comme avant
 		addMouseListener(this);
 		addMouseMotionListener(this);
 		addKeyListener(this);
 
-        // création des joueurs
+		MouseAdapter forward = new MouseAdapter() {
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				PongBase.this.mouseMoved(toFrame(e));
+			}
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				PongBase.this.mouseClicked(toFrame(e));
+			}
+		};
+		canvas.addMouseListener(forward);
+		canvas.addMouseMotionListener(forward);
+		canvas.addKeyListener(this);
+
+        // le joueur distant est prévenu quand on ferme la fenêtre
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                disconnect();
+                System.exit(0);
+            }
+        });
+
+        // chargement des images
         try {
-            player1 = new Player(1, Constants.IMG_RACKET_P1);
-            player2 = new Player(2, Constants.IMG_RACKET_P2);
+            GraphicsConfiguration gc = canvas.getGraphicsConfiguration();
+
+            racketP1Sprite = new Sprite(Constants.IMG_RACKET_P1, gc);
+            racketP2Sprite = new Sprite(Constants.IMG_RACKET_P2, gc);
+            wallSprite = new Sprite(Constants.IMG_WALL, gc);
+            ballSprite = new Sprite(Constants.IMG_BALL, gc);
         } catch (IOException e) {
-            showAlert("Impossible de créer les joueurs : "+e.getMessage());
+            showAlert("Impossible de charger les images : "+e.getMessage());
             System.exit(1);
         }
 
+        // création des joueurs
+        player1 = new Player(1);
+        player2 = new Player(2);
+
         // placement des joueurs
         player1.setPos(35, getHeight() / 2 - 25);
         player2.setPos(getWidth() - 45, getHeight() / 2 - 25);
 
-        // création du plateau de jeu
-        offscreeni = createImage(getWidth(), getHeight());
-        offscreeng = offscreeni.getGraphics();
-
         wallZone = new Rectangle(Constants.EFFECTS_ZONE_MARGIN,
                                  Constants.EFFECTS_ZONE_MARGIN,
                                  getWidth() - 2 * Constants.EFFECTS_ZONE_MARGIN,
                                  getHeight() - 2 * Constants.EFFECTS_ZONE_MARGIN);
 
-        // création du mur
-        try {
-            wall = new Wall(Constants.IMG_WALL,
-                            new Dimension((int) wallZone.getWidth(),
-                                          (int) wallZone.getHeight()),
-                            Constants.EFFECTS_ZONE_MARGIN);
-        } catch (IOException e) {
-            showAlert("Impossible de charger le mur : "+e.getMessage());
-            System.exit(1);
-        }
-
-        // chargement de l'image de la balle
-        try {
-            ball = new Ball(Constants.IMG_BALL);
-        } catch (IOException e) {
-            showAlert("Impossible de charger la balle : "+e.getMessage());
-            System.exit(1);
-        }
+        // création du mur et de la balle
+        wall = new Wall(wallZone.width, wallZone.height, Constants.EFFECTS_ZONE_MARGIN);
+        ball = new Ball();
 
         resetBall();
 
         // zone de jeu
         plane = new Rectangle(15, 15, getWidth(), getHeight() - 30);
 
-        // actualisation de l'affichage
-        repaint();
+        // objets dessinés par le thread d'affichage
+        rackets = new SpriteLayer(2);
+        rackets.add(racketP1Sprite, player1);
+        rackets.add(racketP2Sprite, player2);
+
+        field = new SpriteLayer(2);
+        field.add(wallSprite, wall);
+        field.add(ballSprite, ball);
+
+        // lancement de l'affichage
+        renderLoop = new RenderLoop(canvas, new Scene() {
+            @Override
+            public void render(Graphics g, int bufferAge) {
+                PongBase.this.render(g, bufferAge);
+            }
+        }, targetFps());
+        renderLoop.start();
 
         // chargement des sons
         loadSounds();
@@ -194,15 +386,41 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     }
 
     public void setDistantHost(String host) throws UnknownHostException {
-        distantPlayerHost = InetAddress.getByName(host);
+        setDistantHost(InetAddress.getByName(host));
     }
 
     public void setDistantHost(InetAddress host) {
         distantPlayerHost = host;
+        sender.setDestination(distantPlayerHost, distantPlayerPort);
     }
 
     public void setDistantPort(int port) {
         distantPlayerPort = port;
+        sender.setDestination(distantPlayerHost, distantPlayerPort);
+    }
+
+    /**
+     * Indique si un paquet vient du joueur distant. Un paquet venu d'une
+     * autre adresse est accepté s'il présente le jeton de la session : le
+     * client a changé d'adresse, la partie le suit.
+     *
+     * @param p Paquet reçu
+     *
+     * @return true si le paquet doit être traité
+     */
+    protected final boolean acceptSource(Paquet p) {
+        if(p.getPort() == distantPlayerPort && p.getAddress().equals(distantPlayerHost))
+            return true;
+
+        long token = BinaryProtocol.peekResume(p.getData());
+        if(token == SessionTokens.NONE || token != sessionToken)
+            return false;
+
+        distantPlayerHost = p.getAddress();
+        distantPlayerPort = p.getPort();
+        sender.setDestination(distantPlayerHost, distantPlayerPort);
+
+        return true;
     }
 
     public InetAddress getDistantHost() {
@@ -251,21 +469,373 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     }
 
     /**
-     * Envoie un message au joueur distant
+     * Définit la connexion à utiliser pour dialoguer avec le joueur distant
+     *
+     * @param sock Connexion au second joueur ou socket serveur
+     */
+    protected final void setTransport(Transport sock) {
+        this.sock = sock;
+        sender.setTransport(sock);
+    }
+
+    /**
+     * Choisit le protocole utilisé pour dialoguer avec le joueur distant
+     *
+     * @param protocol Protocole négocié lors de la poignée de main
+     */
+    protected final void setProtocol(Protocol protocol) {
+        this.protocol = protocol;
+        sender.setProtocol(protocol);
+
+        // la poignée de main vient d'aboutir : le silence compte d'ici
+        getLinkStats().heard(System.nanoTime());
+    }
+
+    /**
+     * Fixe le silence au-delà duquel le joueur distant est considéré comme
+     * parti (en mode binaire seulement : en mode texte, rien ne garantit
+     * qu'il envoie quoi que ce soit régulièrement)
+     *
+     * @param millis Délai en millisecondes
+     *
+     * @throws IllegalArgumentException Si le délai est inférieur ou égal à 0
+     */
+    public void setIdleTimeout(int millis) {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Délai incorrect");
+
+        idleTimeout = millis;
+    }
+
+    /**
+     * @return true si le joueur distant a annoncé son départ, ou s'il
+     *         n'a rien envoyé depuis trop longtemps
+     */
+    protected final boolean isPeerGone() {
+        if(peerGone)
+            return true;
+
+        return sender.supportsHeartbeat()
+               && getLinkStats().getIdleTime(System.nanoTime()) > idleTimeout * 1000000L;
+    }
+
+    /**
+     * Crée le jeton de la session et le remet au client (mode binaire
+     * seulement)
+     */
+    protected final void startSession() {
+        if(!sender.supportsSession())
+            return;
+
+        sessionToken = SessionTokens.generate();
+
+        try {
+            sender.sendSession(sessionToken);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    /**
+     * A appeler au début de chaque tour de la boucle de jeu : si le tour
+     * précédent a duré plus de STALL_THRESHOLD (boucle bloquée), les pings
+     * partis avant ne donnent pas de mesure du lien
+     *
+     * @param now Heure courante (System.nanoTime())
+     *
+     * @return true si la boucle vient d'être bloquée
+     */
+    protected final boolean checkStall(long now) {
+        long elapsed = now - lastLoopAt;
+        lastLoopAt = now;
+
+        if(elapsed < STALL_THRESHOLD)
+            return false;
+
+        sender.discardSamplesBefore(now);
+
+        return true;
+    }
+
+    /**
+     * Côté client : si le serveur ne donne plus de nouvelles (peut-être
+     * parce que notre adresse a changé), lui demande régulièrement de
+     * reprendre la partie
+     */
+    protected final void resumeIfSilent() {
+        if(sessionToken == SessionTokens.NONE)
+            return;
+
+        long now = System.nanoTime();
+
+        if(getLinkStats().getIdleTime(now) < Constants.RESUME_DELAY * 1000000L
+           || now - lastResumeAt < Constants.RESUME_INTERVAL * 1000000L)
+            return;
+
+        lastResumeAt = now;
+
+        try {
+            sender.sendResume(sessionToken);
+        } catch (IOException e) {
+            // nouvel essai au prochain intervalle
+        }
+    }
+
+    /**
+     * Quitte la partie : le joueur distant en est prévenu, puis la
+     * connexion est fermée
+     */
+    protected final void disconnect() {
+        if(sock == null)
+            return;
+
+        try {
+            sender.sendDisconnect();
+        } catch (IOException e) {
+            // il constatera notre silence
+        }
+
+        sock.close();
+    }
+
+    /*
+     * Les méthodes send*() envoient un message au joueur distant
+     */
+
+    protected final void sendMove(Player player) {
+        try {
+            sender.sendMove(player);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendBall() {
+        try {
+            sender.sendBall(ball);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendScore(Player player) {
+        try {
+            sender.sendScore(player);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendContact() {
+        try {
+            sender.sendContact();
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendWallTouched() {
+        try {
+            sender.sendWallTouched();
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendState(State state) {
+        try {
+            sender.sendState(state);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendWallPos() {
+        try {
+            sender.sendWallPos(wall);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendInput(Player player, int sequence) {
+        try {
+            sender.sendInput(player, sequence);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final void sendInputAck(Player player, int sequence) {
+        try {
+            sender.sendInputAck(player, sequence);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    /**
+     * Regroupe les messages suivants dans un seul datagramme, envoyé par
+     * endFrame() (cf. MessageSender.beginFrame())
+     */
+    protected final void beginFrame() {
+        sender.beginFrame();
+    }
+
+    protected final void endFrame() {
+        try {
+            sender.endFrame();
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    /**
+     * Tick indiqué dans l'entête des prochains datagrammes envoyés (cf.
+     * MessageSender.setFrameTick())
+     */
+    protected final void setFrameTick(long tick) {
+        sender.setFrameTick(tick);
+    }
+
+    /**
+     * @return Tick indiqué par le plus récent datagramme reçu
+     */
+    protected final long getRemoteTick() {
+        return remoteTick;
+    }
+
+    /**
+     * @return Heure de réception (par le transport) du datagramme en cours
+     *         de traitement
+     */
+    protected final long getDatagramReceivedAt() {
+        return datagramReceivedAt;
+    }
+
+    /**
+     * @return Qualité du lien avec le joueur distant
+     */
+    public final LinkStats getLinkStats() {
+        return sender.getLinkStats();
+    }
+
+    /**
+     * @return Cadence de la simulation, null si elle n'est pas faite ici
+     */
+    protected TickScheduler getScheduler() {
+        return null;
+    }
+
+    /**
+     * Envoie tout de suite les messages regroupés jusqu'ici
+     */
+    protected final void flushFrame() {
+        try {
+            sender.flushFrame();
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    /**
+     * Envoie les acquittements et les messages fiables à renvoyer qui
+     * n'auraient pas pu partir avec un autre message
+     */
+    protected final void flushReliable() {
+        try {
+            sender.flushReliable();
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    /**
+     * En fin de partie : laisse au plus timeout millisecondes aux derniers
+     * messages fiables (score, état final) pour être acquittés
      *
-     * @param msg Le message à envoyer
+     * @param timeout Temps d'attente maximal en millisecondes
+     */
+    protected final void drainReliable(int timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean pending;
+
+        do {
+            beginFrame();
+
+            try {
+                Paquet p = sock.tryReceive(10);
+
+                while(p != null) {
+                    executeCmd(p);
+                    p = sock.poll();
+                }
+            } catch (IOException e) {
+                // on réessaiera au prochain tour
+            }
+
+            // nos propres acquittements des derniers messages reçus
+            acknowledgeSnapshots();
+            pending = resendUnacknowledgedState();
+
+            endFrame();
+            flushReliable();
+        } while((pending || sender.hasUnacknowledged())
+                && !peerGone && System.currentTimeMillis() < deadline);
+
+        sender.close();
+    }
+
+    /**
+     * Appelée par drainReliable() : renvoie l'état de la partie tant que le
+     * joueur distant ne l'a pas acquitté
+     *
+     * @return true s'il reste un état à faire acquitter
+     */
+    protected boolean resendUnacknowledgedState() {
+        return false;
+    }
+
+    /**
+     * @return true si l'état de la partie est envoyé par instantanés
+     *         plutôt que message par message (protocole binaire)
      */
-    protected final void sendToDistantPlayer(String msg) {
-        if(distantPlayerHost == null)
+    protected final boolean usesSnapshots() {
+        return sender.supportsSnapshots();
+    }
+
+    protected final void sendSnapshot(Snapshot snapshot) {
+        try {
+            sender.sendSnapshot(snapshot);
+        } catch (IOException e) {
+            onSendError(e);
+        }
+    }
+
+    protected final boolean isSnapshotAcknowledged(Snapshot snapshot) {
+        return sender.isSnapshotAcknowledged(snapshot);
+    }
+
+    /**
+     * Acquitte le dernier instantané reçu, s'il ne l'a pas déjà été
+     */
+    protected final void acknowledgeSnapshots() {
+        int sequence = snapshots.takeAck();
+
+        if(sequence < 0)
             return;
 
         try {
-            sock.send(distantPlayerHost, distantPlayerPort, msg);
+            sender.sendSnapshotAck(sequence);
         } catch (IOException e) {
-            showAlert("Erreur à l'envoi de données vers le client : "+ e);
+            onSendError(e);
         }
     }
 
+    private void onSendError(IOException e) {
+        showAlert("Erreur à l'envoi de données vers le client : "+ e);
+    }
+
 
     /**
      * Sera appelée lors du début du mode pause
@@ -275,8 +845,6 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
             return;
 
         changeState(State.PAUSED);
-
-        repaint();
     }
 
     /**
@@ -287,14 +855,19 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
             return;
 
         changeState(State.STARTED);
-
-        repaint();
     }
 
     protected void onGameOver() {
         showAlert(myWin() ? "Vous avez gagné \\o/" : "Vous avez perdu [-_-]\"");
     }
 
+    /**
+     * Sera appelée si le joueur distant est parti avant la fin de la partie
+     */
+    protected void onConnectionLost() {
+        showAlert("Le joueur distant a quitté la partie");
+    }
+
     protected void onWallMoved(int x, int y, boolean visible) {}
 
     /**
@@ -321,7 +894,8 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     }
 
     /**
-     * Servira à mettre le jeu en pause lors de l'appui sur les touches P ou p
+     * Servira à mettre le jeu en pause lors de l'appui sur les touches P ou p,
+     * et à afficher la qualité du lien avec les touches I ou i
      *
      * @param e Event lié au clavier
      */
@@ -329,6 +903,11 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     public void keyPressed(KeyEvent e) {
         char c = e.getKeyChar();
 
+        if(c == 'i' || c == 'I') {
+            linkOverlay = !linkOverlay;
+            return;
+        }
+
         if(c != 'p' && c != 'P') {
             return;
         }
@@ -340,8 +919,9 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     }
 
     /**
-     * Met à jour la position du pavé du joueur 2 par rapport
-     * aux mouvements de la souris
+     * Met à jour la position du pavé du joueur par rapport aux mouvements
+     * de la souris. Rien n'est envoyé ici : la boucle de jeu relève la
+     * dernière position (cf. sampleInput()).
      *
      * @see java.awt.event.MouseMotionListener#mouseMoved(java.awt.event.MouseEvent)
      *
@@ -349,11 +929,59 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
      */
     @Override
     public void mouseMoved(MouseEvent e) {
+        int y = MatchSimulation.clampPaddle(e.getY() - 25);
+
+        getMyPlayer().y = y;
+        pendingInput.set(y);
+    }
+
+    /**
+     * Relève la dernière position de la souris, au plus une fois par tick
+     * de référence : les positions intermédiaires sont oubliées, et le
+     * nombre d'envois ne dépend pas de la fréquence de la souris.
+     *
+     * @note A appeler à chaque tour de la boucle de jeu
+     */
+    protected final void sampleInput() {
+        long now = System.nanoTime();
+
+        if(now - lastInputAt < INPUT_INTERVAL)
+            return;
+
+        int y = pendingInput.getAndSet(NO_INPUT);
+        if(y == NO_INPUT)
+            return;
+
+        lastInputAt = now;
+        onInputSampled(y);
+    }
+
+    /**
+     * Dernière position de la souris pas encore relevée par la boucle de
+     * jeu (donc inconnue du serveur)
+     *
+     * @param defaultY Valeur retournée s'il n'y en a pas
+     */
+    protected final int getPendingInput(int defaultY) {
+        int y = pendingInput.get();
+
+        return y == NO_INPUT ? defaultY : y;
+    }
+
+    /**
+     * Nouvelle position de la raquette du joueur, relevée par la boucle de
+     * jeu. Elle n'est envoyée qu'en mode texte : sinon elle part avec le
+     * prochain instantané.
+     *
+     * @param y Position de la raquette
+     */
+    protected void onInputSampled(int y) {
         Player player = getMyPlayer();
 
-        player.y = e.getY() - 25;
-        sendToDistantPlayer(String.format("%s %s %s", Constants.MSG_MOVE,
-                                                      player, player.y));
+        player.y = y;
+
+        if(!usesSnapshots())
+            sendMove(player);
     }
 
     @Override
@@ -373,149 +1001,346 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
     }
 
     /**
-     * Analyse un message transmis par le réseau pour
+     * Analyse un paquet transmis par le réseau pour
      * exécuter la méthode qui va bien.
      *
-     * @param cmd Message à analyser
+     * @param p Paquet à analyser (rendu ensuite à sa réserve : il ne doit
+     *          plus être utilisé)
      */
-    protected final void executeCmd(String cmd) {
-        String[] args = cmd.split(" ");
-        String cmdName = args[0];
+    protected final void executeCmd(Paquet p) {
+        getLinkStats().heard(System.nanoTime());
+        datagramReceivedAt = p.getReceivedAt();
+        sender.onDatagram(datagramReceivedAt);
+        protocol.read(p.getData(), this);
+        p.release();
+    }
 
-        switch(args.length) {
-            case 1:
-                executeOneArgCmd(cmdName);
-                break;
-            case 2:
-                executeTwoArgsCmd(cmdName, args);
-                break;
-            case 3:
-                executeThreeArgsCmd(cmdName, args);
-                break;
-            case 4:
-                executeFourArgsCmd(cmdName, args);
-                break;
-        }
+    @Override
+    public void onMoveMessage(int player, int y) {
+        // changement de la position des joueurs
+        if(player == 1)
+            player1.y = y;
+        else
+            player2.y = y;
     }
 
-    private void executeOneArgCmd(String cmd) {
-        if(cmd.equals(Constants.MSG_WALL_TOUCHED)) {
-            onWallTouched();
-        } else if (cmd.equals(Constants.MSG_CONTACT)) {
-            Sound.play(Constants.SOUND_CONTACT);
-        }
+    @Override
+    public void onBallMessage(int x, int y) {
+        // changement de la position de la balle
+        ball.x = x;
+        ball.y = y;
     }
 
-    private void executeTwoArgsCmd(String cmd, String[] args) {
-        if (cmd.equals(Constants.MSG_STATE_CHANGED))
-            changeState(State.valueOf(args[1]));
+    @Override
+    public void onScoreMessage(int player, int score) {
+        // mise à jour des scores
+        if(player == 1)
+            player1.setScore(score);
+        else
+            player2.setScore(score);
     }
 
-    private void executeThreeArgsCmd(String cmd, String[] args) {
-        if(cmd.equals(Constants.MSG_MOVE)) { // changement de la position des joueurs
-            int y = Integer.parseInt(args[2]);
+    @Override
+    public void onContactMessage() {
+        Sound.play(Constants.SOUND_CONTACT);
+    }
 
-            if(args[1].equals("P1"))
-                player1.y = y;
-            else
-                player2.y = y;
-        } else if(cmd.equals(Constants.MSG_BALL)) { // changement de la position de la balle
-            ball.x = Integer.parseInt(args[1]);
-            ball.y = Integer.parseInt(args[2]);
-        } else if(cmd.equals(Constants.MSG_SCORE)) { // mise à jour des scores
-            int score = Integer.parseInt(args[2]);
+    @Override
+    public void onWallTouchedMessage() {
+        onWallTouched();
+    }
 
-            if(args[1].equals("P1"))
-                player1.setScore(score);
-            else
-                player2.setScore(score);
-        }
+    @Override
+    public void onStateMessage(State state) {
+        changeState(state);
     }
 
-    private void executeFourArgsCmd(String cmd, String[] args) {
-        if(!cmd.equals(Constants.MSG_WALL_POS))
-            return;
+    @Override
+    public void onWallPosMessage(int x, int y, boolean visible) {
+        onWallMoved(x, y, visible);
+    }
+
+    @Override
+    public void onInputMessage(int player, int sequence, int y) {
+        onMoveMessage(player, MatchSimulation.clampPaddle(y));
+    }
+
+    @Override
+    public void onInputAckMessage(int player, int sequence, int y) { }
+
+    @Override
+    public void onReliableMessage(int sequence, ByteBuffer payload) {
+        sender.onReliable(sequence, payload, this);
+    }
+
+    @Override
+    public void onAckMessage(int ack, int bits) {
+        sender.onAck(ack, bits);
+    }
+
+    @Override
+    public void onSnapshotMessage(int sequence, int baseline, ByteBuffer delta) {
+        Snapshot snapshot = snapshots.receive(sequence, baseline, delta);
+
+        if(snapshot != null && snapshot.getState() != null)
+            applySnapshot(snapshot);
+    }
+
+    @Override
+    public void onSnapshotAckMessage(int sequence) {
+        sender.onSnapshotAck(sequence);
+    }
+
+    @Override
+    public boolean onFrameMessage(int sequence, long tick) {
+        if(!sender.getLinkStats().acceptFrame(sequence))
+            return false;
+
+        remoteTick = tick;
+
+        return true;
+    }
 
-        int x = Integer.parseInt(args[1]);
-        int y = Integer.parseInt(args[2]);
+    @Override
+    public void onPingMessage(int time) {
+        sender.onPing(time);
+    }
 
-        onWallMoved(x, y, args[3].equals("on"));
+    @Override
+    public void onPongMessage(int echo, int hold, int loss) {
+        sender.onPong(echo, hold, loss);
+    }
+
+    @Override
+    public void onDisconnectMessage() {
+        peerGone = true;
     }
 
     /**
-     * Demande de re-dessiner l'interface
-     *
-     * @param g Element dans lequel on dessine
+     * Le jeton n'est accepté qu'une fois : celui d'une session en cours ne
+     * peut pas être remplacé
      */
     @Override
-    public void update(Graphics g) {
-        paint(g);
+    public void onSessionMessage(long token) {
+        if(sessionToken == SessionTokens.NONE)
+            sessionToken = token;
+    }
+
+    @Override
+    public void onResumeMessage(long token) {
+        if(token != SessionTokens.NONE && token == sessionToken)
+            sender.resync();
     }
 
     /**
-     * Dessine l'interface
+     * Applique un instantané reçu en passant par les mêmes méthodes que les
+     * messages individuels. La balle et la raquette adverse sont transmises
+     * à chaque instantané (pour leur interpolation), le reste seulement
+     * quand il change. Notre propre raquette est ignorée : elle est prédite
+     * (cf. onInputAckMessage()).
+     */
+    private void applySnapshot(Snapshot snapshot) {
+        boolean first = !snapshotApplied;
+        int changed = first ? -1 : snapshot.diff(appliedSnapshot);
+
+        onBallMessage(snapshot.get(Snapshot.BALL_X), snapshot.get(Snapshot.BALL_Y));
+
+        if(player1 != getMyPlayer())
+            onMoveMessage(player1.getId(), snapshot.get(Snapshot.PLAYER1_Y));
+        if(player2 != getMyPlayer())
+            onMoveMessage(player2.getId(), snapshot.get(Snapshot.PLAYER2_Y));
+
+        if((changed & (1 << Snapshot.SCORE1)) != 0)
+            onScoreMessage(player1.getId(), snapshot.get(Snapshot.SCORE1));
+        if((changed & (1 << Snapshot.SCORE2)) != 0)
+            onScoreMessage(player2.getId(), snapshot.get(Snapshot.SCORE2));
+
+        if((changed & (1 << Snapshot.WALL_X | 1 << Snapshot.WALL_Y | 1 << Snapshot.WALL_VISIBLE)) != 0)
+            onWallPosMessage(snapshot.get(Snapshot.WALL_X), snapshot.get(Snapshot.WALL_Y),
+                             snapshot.isWallVisible());
+
+        // en dernier : l'état final s'appuie sur les scores
+        if((changed & (1 << Snapshot.STATE)) != 0)
+            onStateMessage(snapshot.getState());
+
+        appliedSnapshot.copyFrom(snapshot);
+        snapshotApplied = true;
+    }
+
+    /**
+     * Fréquence d'affichage : celle de l'écran si elle est connue,
+     * Constants.TARGET_FPS sinon
+     */
+    private int targetFps() {
+        DisplayMode mode = getGraphicsConfiguration().getDevice().getDisplayMode();
+        int rate = mode.getRefreshRate();
+
+        return rate != DisplayMode.REFRESH_RATE_UNKNOWN ? rate : Constants.TARGET_FPS;
+    }
+
+    /**
+     * Ramène un évènement souris du Canvas dans les coordonnées de la
+     * fenêtre
+     */
+    private MouseEvent toFrame(MouseEvent e) {
+        return SwingUtilities.convertMouseEvent(canvas, e, this);
+    }
+
+    /**
+     * Dessine l'interface (appelée par le thread d'affichage). Seules les
+     * zones qui ont changé depuis l'image que contient le tampon sont
+     * redessinées.
      *
      * @param g Element dans lequel on dessine
+     * @param bufferAge Age du contenu du tampon (cf. Scene.render())
      */
-    @Override
-    public void paint(Graphics g) {
-        if (offscreeng == null)
+    private void render(Graphics g, int bufferAge) {
+        // le terrain est dessiné 10 pixels sous le haut de la fenêtre, comme
+        // lorsqu'il était peint directement dans celle-ci
+        Insets insets = getInsets();
+        g.translate(-insets.left, 10 - insets.top);
+
+        State current = state;
+        boolean death = isDeathPhase(System.nanoTime());
+        boolean overlay = linkOverlay;
+        int score1 = player1.getScore();
+        int score2 = player2.getScore();
+
+        // fond, bordure et lignes du terrain (qui ne sont pas affichées
+        // avec un message)
+        int variant = (death ? BACKGROUND_DEATH : 0)
+                    | (current == State.STARTED ? BACKGROUND_LINES : 0);
+
+        // zones des objets qui ont bougé depuis l'image précédente ; un
+        // changement de fond, de score ou de message concerne tout l'écran
+        rackets.update(damage);
+        field.setVisible(current == State.STARTED);
+        field.update(damage);
+
+        // textes des scores, refaits seulement quand un score change
+        if(score1 != drawnScore1)
+            scoreText1 = String.format("Joueur 1 : %d", score1);
+        if(score2 != drawnScore2)
+            scoreText2 = String.format("Joueur 2 : %d", score2);
+
+        if(variant != drawnVariant || overlay != drawnOverlay
+           || score1 != drawnScore1 || score2 != drawnScore2)
+            damage.setFull();
+
+        if(overlay)
+            damage.add(plane.x + 5, plane.y + plane.height - 85, LINK_STATS_WIDTH, 80);
+
+        drawnVariant = variant;
+        drawnOverlay = overlay;
+        drawnScore1 = score1;
+        drawnScore2 = score2;
+
+        // le tampon contient une image plus ancienne : ce qui a changé
+        // depuis est aussi à redessiner
+        redraw.clear();
+        redraw.add(damage);
+        if(bufferAge == 2)
+            redraw.add(lastDamage);
+        else if(bufferAge != 1)
+            redraw.setFull();
+
+        DirtyRegion done = lastDamage;
+        lastDamage = damage;
+        damage = done;
+        damage.clear();
+
+        if(redraw.isFull())
+            lastDamage.setFull();
+
+        BufferedImage back = background.get(canvas.getGraphicsConfiguration(),
+                                             getWidth(), getHeight(), variant);
+
+        if(redraw.isFull()) {
+            g.drawImage(back, 0, 0, null);
+            drawScene(g, current, death, overlay);
             return;
+        }
 
-        offscreeng.setColor(new Color(244, 122, 0)); // orange foncé
-        offscreeng.fillRect(0, 0, getWidth(), getHeight());
-        offscreeng.setColor(!deathMode ? Color.white : Color.red);
+        for(int i = 0; i < redraw.size(); i++) {
+            Rectangle r = redraw.get(i);
+            Graphics rg = g.create();
 
-        displayScores();
+            try {
+                rg.clipRect(r.x, r.y, r.width, r.height);
+                rg.drawImage(back, 0, 0, null);
+                drawScene(rg, current, death, overlay);
+            } finally {
+                rg.dispose();
+            }
+        }
+    }
 
-        if (plane != null) {
-            offscreeng.clipRect(plane.x, plane.y, plane.width - 28,
-                                plane.height + 1);
-            offscreeng.drawRect(plane.x, plane.y, plane.width - 30, plane.height);
+    /**
+     * Dessine ce qui se trouve au dessus du fond du terrain, dans la zone
+     * de dessin de g
+     */
+    private void drawScene(Graphics g, State current, boolean death, boolean overlay) {
+        g.setColor(!death ? Color.white : Color.red);
 
-            // affichage des raquettes
-            player1.drawOn(offscreeng);
-            player2.drawOn(offscreeng);
+        displayScores(g);
 
-            // affichage d'un message si besoin
-            if(!drawStateMessage()) {
-                drawGroundLines();
+        g.clipRect(plane.x, plane.y, plane.width - 28, plane.height + 1);
 
-                // affichage du mur
-                if(wall.isVisible())
-                    wall.drawOn(offscreeng);
+        // raquettes, puis mur et balle (cachés s'il y a un message)
+        rackets.draw(g);
+        field.draw(g);
 
-                // affichage de la balle
-                ball.drawOn(offscreeng);
-            }
-        }
+        // affichage d'un message si besoin
+        drawStateMessage(g, current);
 
-        g.drawImage(offscreeni, 0, 10, this);
+        if(overlay)
+            drawLinkStats(g);
+    }
+
+    /**
+     * Dessine le fond du terrain : sa couleur, sa bordure et, selon la
+     * variante, ses lignes
+     *
+     * @param g Element dans lequel on dessine
+     * @param variant Combinaison de BACKGROUND_DEATH et BACKGROUND_LINES
+     */
+    private void paintBackground(Graphics g, int variant) {
+        g.setColor(new Color(244, 122, 0)); // orange foncé
+        g.fillRect(0, 0, getWidth(), getHeight());
+        g.setColor((variant & BACKGROUND_DEATH) == 0 ? Color.white : Color.red);
+
+        g.clipRect(plane.x, plane.y, plane.width - 28, plane.height + 1);
+        g.drawRect(plane.x, plane.y, plane.width - 30, plane.height);
+
+        if((variant & BACKGROUND_LINES) != 0)
+            drawGroundLines(g);
     }
 
     /**
      * Affiche le message correspondant à l'état du jeu (s'il y en a un).
      *
+     * @param g Element dans lequel on dessine
+     * @param current Etat du jeu à afficher
+     *
      * @return true si un message a été affiché, false sinon
      */
-    private boolean drawStateMessage() {
-        offscreeng.setFont(new Font("Dialog", Font.BOLD, 40));
-        
-        switch (state) {
+    private boolean drawStateMessage(Graphics g, State current) {
+        switch (current) {
             case WAITING:
-                offscreeng.drawString("En attente ...",
-                                      getWidth() / 2 - 90, getHeight() / 2);
+                texts.draw(g, MESSAGE_FONT, "En attente ...",
+                           getWidth() / 2 - 90, getHeight() / 2);
                 break;
             case READY:
-                offscreeng.drawString("Prêt ?",
-                                      getWidth() / 2 - 40, getHeight() / 2);
+                texts.draw(g, MESSAGE_FONT, "Prêt ?",
+                           getWidth() / 2 - 40, getHeight() / 2);
                 break;
             case PAUSED:
-                offscreeng.drawString("Pause", getWidth() / 2 - 50, getHeight() / 2 );
+                texts.draw(g, MESSAGE_FONT, "Pause",
+                           getWidth() / 2 - 50, getHeight() / 2);
                 break;
             case FINISHED:
-                offscreeng.drawString(myWin() ? "You win !" : "Game Over !",
-                                      getWidth() / 2 - 110, getHeight() / 2);
+                texts.draw(g, MESSAGE_FONT, myWin() ? "You win !" : "Game Over !",
+                           getWidth() / 2 - 110, getHeight() / 2);
 				break;
 			default:
 				return false;
@@ -524,22 +1349,52 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
 		return true;
 	}
 
+    /**
+     * Affiche la qualité du lien en bas à gauche du terrain
+     */
+    private void drawLinkStats(Graphics g) {
+        LinkStats link = getLinkStats();
+        SequenceTracker frames = link.getFrames();
+        TickScheduler scheduler = getScheduler();
+        int x = plane.x + 10;
+        int y = plane.y + plane.height - 10;
+
+        g.setFont(STATS_FONT);
+        if(scheduler != null)
+            g.drawString(String.format("Retards de la simulation : %d (max %.1f ms)",
+                                       scheduler.getOverruns(),
+                                       scheduler.getMaxLateness() / 1e6),
+                         x, y - 60);
+        g.drawString(String.format("Datagrammes : %d perdus, %d en retard",
+                                   frames.getLost(), frames.getReordered()),
+                     x, y - 45);
+        g.drawString(String.format("RTT %.1f ms, gigue %.1f ms",
+                                   Math.max(0, link.getSrtt()) / 1e6,
+                                   link.getJitter() / 1e6),
+                     x, y - 30);
+        g.drawString(String.format("Pertes %.1f %% reçus, %.1f %% envoyés",
+                                   100 * link.getLoss(),
+                                   100 * link.getRemoteLoss()),
+                     x, y - 15);
+        g.drawString(renderLoop.getStats().toString(), x, y);
+    }
+
 	/**
 	 * Dessine les lignes du terrain
 	 */
-	private void drawGroundLines() {
+	private void drawGroundLines(Graphics g) {
 		int circleRadius = 75;
 		int circleOriginY = getHeight() / 2;
 		int circleOriginX = getWidth() / 2;
 		int thickness = 4;
 
-		drawCircle(offscreeng, circleOriginX, circleOriginY, circleRadius, thickness);
+		drawCircle(g, circleOriginX, circleOriginY, circleRadius, thickness);
 
 		//creation de la ligne de fond verticale ( drawLine(x1,y1,x2,y2) ) du point (x1,y1) au point (x2,y2)
 		// on en fait plusieurs pour gérer l'épaisseur du trait
-		offscreeng.drawLine(getWidth()/2,getHeight(),getWidth()/2, -getHeight());
-		offscreeng.drawLine(getWidth()/2+1,getHeight(),getWidth()/2+1, -getHeight());
-		offscreeng.drawLine(getWidth()/2-1,getHeight(),getWidth()/2-1, -getHeight());
+		g.drawLine(getWidth()/2,getHeight(),getWidth()/2, -getHeight());
+		g.drawLine(getWidth()/2+1,getHeight(),getWidth()/2+1, -getHeight());
+		g.drawLine(getWidth()/2-1,getHeight(),getWidth()/2-1, -getHeight());
 	}
 
 	/**
@@ -594,40 +1449,43 @@ public abstract class PongBase extends JFrame implements KeyListener, Runnable,
 
 	/**
 	 * Fait clignoter l'interface (par exemple lorsqu'un point
-	 * a été marqué).
+	 * a été marqué), sans attendre la fin du clignotement.
 	 */
 	private void blink() {
-		for (int i = 3; i > 0; i--) {
-			deathMode = true;
-			repaint();
+		blinkStartedAt = System.nanoTime();
+	}
 
-			wait(300);
+	/**
+	 * Indique si l'interface clignote encore
+	 *
+	 * @param now Heure courante (System.nanoTime())
+	 */
+	protected final boolean isBlinking(long now) {
+		return now - blinkStartedAt < BLINK_DURATION;
+	}
 
-			deathMode = false;
-			repaint();
+	/**
+	 * Indique si le terrain est dessiné en rouge (phase paire du
+	 * clignotement)
+	 */
+	private boolean isDeathPhase(long now) {
+		long elapsed = now - blinkStartedAt;
 
-			wait(300);
-		}
+		return elapsed < BLINK_DURATION && (elapsed / BLINK_PHASE) % 2 == 0;
 	}
 
 	/**
 	 * Affiche l'état des scores
 	 */
-	private void displayScores() {
-		offscreeng.setFont(new Font("Dialog", Font.BOLD, 14));
-
-		offscreeng.drawString(String.format("Joueur 1 : %d", player1.getScore()),
-							  getWidth() / 10, 35);
-		offscreeng.drawString(String.format("Joueur 2 : %d", player2.getScore()),
-							  4 * getWidth() / 5, 35);
+	private void displayScores(Graphics g) {
+		texts.draw(g, SCORE_FONT, scoreText1, getWidth() / 10, 35);
+		texts.draw(g, SCORE_FONT, scoreText2, 4 * getWidth() / 5, 35);
 	}
 
 	/**
 	 * Appelée lorsqu'un mur a été touché.
 	 */
 	protected final void onWallTouched() {
-		displayScores();
-
 		blink();
 	}
 
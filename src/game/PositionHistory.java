@@ -0,0 +1,95 @@
+/*
+ *  PositionHistory.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+import game.objects.GameObject;
+
+
+/**
+ * Historique des dernières positions d'un objet, une par tick de la
+ * simulation, dans un tampon circulaire de taille fixe.
+ */
+public final class PositionHistory {
+    private final int[] xs;
+    private final int[] ys;
+
+    /**
+     * Tick de la position la plus récente, nombre de positions conservées
+     */
+    private long lastTick;
+    private int count = 0;
+
+
+    /**
+     * @param capacity Nombre de ticks conservés
+     */
+    public PositionHistory(int capacity) {
+        xs = new int[capacity];
+        ys = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return xs.length;
+    }
+
+    /**
+     * Enregistre la position de l'objet au tick donné. Les ticks doivent
+     * être enregistrés dans l'ordre, sans trou.
+     */
+    public void record(long tick, int x, int y) {
+        int i = index(tick);
+
+        xs[i] = x;
+        ys[i] = y;
+
+        lastTick = tick;
+        count = Math.min(count + 1, xs.length);
+    }
+
+    /**
+     * Place l'objet à la position qu'il avait au tick donné. Si ce tick
+     * n'est plus (ou pas encore) dans l'historique, on prend la position
+     * connue la plus proche.
+     *
+     * @return false si l'historique est vide (l'objet n'est pas déplacé)
+     */
+    public boolean restore(long tick, GameObject target) {
+        if(count == 0)
+            return false;
+
+        long oldest = lastTick - count + 1;
+        int i = index(Math.max(oldest, Math.min(tick, lastTick)));
+
+        target.setPos(xs[i], ys[i]);
+
+        return true;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    private int index(long tick) {
+        return (int) (tick % xs.length);
+    }
+}
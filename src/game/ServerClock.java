@@ -0,0 +1,196 @@
+/*
+ *  ServerClock.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+
+/**
+ * Horloge du serveur vue du client : associe à chaque tick du serveur
+ * (cf. l'entête des datagrammes) une heure locale, sans l'irrégularité de
+ * l'arrivée des datagrammes.
+ *
+ * L'heure locale d'un tick est celle du premier tick observé, plus le
+ * nombre de ticks écoulés fois leur durée. Cette durée est d'abord la
+ * durée nominale (le serveur peut tourner à une autre fréquence), puis
+ * mesurée entre les arrivées les plus rapides : celle de la première
+ * fenêtre d'une seconde, et celle de la dernière fenêtre terminée. Le
+ * décalage entre les deux horloges suit lui aussi les arrivées les plus
+ * rapides : il baisse vite quand un datagramme arrive en avance, et ne
+ * remonte que lentement (dérive des horloges, changement de route).
+ *
+ * Le tick du serveur ne compte pas pendant les pauses : les datagrammes
+ * qui répètent le même tick sont ignorés, et quand il repart plus tard
+ * que prévu, l'horloge est recalée sur son arrivée et la mesure reprend
+ * (la durée d'un tick déjà mesurée est conservée).
+ *
+ * Les dates sont celles de System.nanoTime().
+ */
+public final class ServerClock {
+    /**
+     * Durée d'une fenêtre de mesure, en nanosecondes
+     */
+    private static final long WINDOW = 1000000000L;
+
+    /**
+     * Attente au-delà de celle prévue entre deux ticks reçus, au-delà de
+     * laquelle le serveur est considéré comme s'étant arrêté (pause) :
+     * l'horloge est alors recalée, en nanosecondes
+     */
+    private static final long RESYNC_THRESHOLD = 100000000L;
+
+    /**
+     * Part de l'écart corrigée à chaque datagramme : en avance, en retard
+     */
+    private static final double EARLY_GAIN = 0.25;
+    private static final double LATE_GAIN  = 1.0 / 128;
+
+    private final double nominalTickNanos;
+    private double tickNanos;
+
+    private boolean started = false;
+    private long firstTick, lastTick;
+    private long lastArrival;
+
+    /**
+     * Arrivée la plus rapide de la première fenêtre (référence de la mesure
+     * de la durée d'un tick), et de la fenêtre en cours
+     */
+    private boolean anchored = false;
+    private long anchorTick, anchorArrival;
+
+    private long windowStart;
+    private long fastestTick, fastestArrival;
+
+    /**
+     * Heure locale lissée du premier tick observé
+     */
+    private double base;
+
+
+    /**
+     * @param nominalTickRate Fréquence supposée des ticks du serveur, tant
+     *                        qu'elle n'a pas pu être mesurée
+     */
+    public ServerClock(int nominalTickRate) {
+        if(nominalTickRate < 1)
+            throw new IllegalArgumentException("Fréquence incorrecte : doit être supérieure à 0");
+
+        nominalTickNanos = 1e9 / nominalTickRate;
+    }
+
+    /**
+     * Prend en compte un datagramme reçu
+     *
+     * @param tick Tick du serveur indiqué par le datagramme
+     * @param arrival Heure de réception du datagramme
+     *
+     * @return Heure locale correspondant à ce tick
+     */
+    public long onFrame(long tick, long arrival) {
+        // premier datagramme, ou serveur qui a recommencé à compter
+        if(!started || tick < lastTick) {
+            started = true;
+            tickNanos = nominalTickNanos;
+            restart(tick, arrival);
+
+            return arrival;
+        }
+
+        // tick déjà vu (serveur en pause, ou second datagramme du même
+        // tick) : sa date n'apprend rien
+        if(tick == lastTick)
+            return toLocal(tick);
+
+        // il repart après une pause
+        if(arrival - lastArrival - (tick - lastTick) * tickNanos > RESYNC_THRESHOLD) {
+            restart(tick, arrival);
+
+            return arrival;
+        }
+
+        lastTick = tick;
+        lastArrival = arrival;
+
+        measureTick(tick, arrival);
+
+        double error = arrival - (base + (tick - firstTick) * tickNanos);
+        base += error * (error < 0 ? EARLY_GAIN : LATE_GAIN);
+
+        return toLocal(tick);
+    }
+
+    /**
+     * Reprend la mesure à partir de ce datagramme
+     */
+    private void restart(long tick, long arrival) {
+        anchored = false;
+        firstTick = lastTick = tick;
+        lastArrival = arrival;
+        base = arrival;
+        startWindow(tick, arrival);
+    }
+
+    /**
+     * Retient l'arrivée la plus rapide de la fenêtre en cours (à la durée
+     * de tick près), et à la fin de la fenêtre mesure la durée d'un tick
+     * depuis celle de la première fenêtre
+     */
+    private void measureTick(long tick, long arrival) {
+        if(arrival - (tick - fastestTick) * tickNanos < fastestArrival) {
+            fastestTick = tick;
+            fastestArrival = arrival;
+        }
+
+        if(arrival - windowStart < WINDOW)
+            return;
+
+        if(!anchored) {
+            anchored = true;
+            anchorTick = fastestTick;
+            anchorArrival = fastestArrival;
+        } else if(fastestTick > anchorTick) {
+            tickNanos = (double) (fastestArrival - anchorArrival) / (fastestTick - anchorTick);
+        }
+
+        startWindow(tick, arrival);
+    }
+
+    private void startWindow(long tick, long arrival) {
+        windowStart = arrival;
+        fastestTick = tick;
+        fastestArrival = arrival;
+    }
+
+    /**
+     * @return Heure locale correspondant à un tick du serveur
+     */
+    public long toLocal(long tick) {
+        return (long) (base + (tick - firstTick) * tickNanos);
+    }
+
+    /**
+     * @return Durée estimée d'un tick du serveur, en nanosecondes
+     */
+    public double getTickNanos() {
+        return tickNanos;
+    }
+}
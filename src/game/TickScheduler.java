@@ -0,0 +1,192 @@
+/*
+ *  TickScheduler.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game;
+
+
+/**
+ * Cadence une boucle de jeu à fréquence fixe.
+ *
+ * L'attente du prochain tick se fait en dormant tant que l'échéance est
+ * lointaine, puis en boucle active pour les dernières millisecondes (la
+ * précision de Thread.sleep() dépend trop du système).
+ *
+ * Si la boucle a pris du retard, awaitTicks() indique combien de ticks
+ * doivent être simulés pour le rattraper. Au-delà d'un certain retard, les
+ * ticks manqués sont abandonnés. Les retards sont comptabilisés, et
+ * peuvent être lus depuis un autre thread (affichage).
+ */
+public final class TickScheduler {
+    /**
+     * En dessous de ce délai (en nanosecondes), on ne dort plus : on attend
+     * activement l'échéance
+     */
+    private static final long SPIN_THRESHOLD = 2000000;
+
+    /**
+     * Nombre maximal de ticks rattrapés d'un coup, par défaut
+     */
+    private static final int DEFAULT_MAX_CATCH_UP = 5;
+
+    private final int ticksPerSecond;
+    private final long tickNanos;
+    private final int maxCatchUp;
+
+    /**
+     * Echéance du prochain tick (cf. System.nanoTime())
+     */
+    private long nextTick;
+
+    private volatile long ticks = 0;
+    private volatile long overruns = 0;
+    private volatile long skippedTicks = 0;
+    private volatile long maxLateness = 0;
+
+
+    public TickScheduler(int ticksPerSecond) {
+        this(ticksPerSecond, DEFAULT_MAX_CATCH_UP);
+    }
+
+    /**
+     * @param ticksPerSecond Fréquence des ticks
+     * @param maxCatchUp Nombre maximal de ticks rattrapés d'un coup
+     *
+     * @throws IllegalArgumentException Si un des paramètres est strictement
+     *                                  inférieur à 1
+     */
+    public TickScheduler(int ticksPerSecond, int maxCatchUp) {
+        if(ticksPerSecond < 1)
+            throw new IllegalArgumentException("Fréquence incorrecte : doit être supérieure à 0");
+        if(maxCatchUp < 1)
+            throw new IllegalArgumentException("Rattrapage incorrect : doit être supérieur à 0");
+
+        this.ticksPerSecond = ticksPerSecond;
+        this.tickNanos = 1000000000L / ticksPerSecond;
+        this.maxCatchUp = maxCatchUp;
+
+        resync();
+    }
+
+    public int getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    /**
+     * Le prochain tick aura lieu maintenant : le retard accumulé jusqu'ici
+     * est oublié (utile après une pause volontaire de la boucle).
+     */
+    public void resync() {
+        nextTick = System.nanoTime();
+    }
+
+    /**
+     * Attend l'échéance du prochain tick.
+     *
+     * @return Le nombre de ticks à simuler : 1 si la boucle est à l'heure,
+     *         davantage si elle doit rattraper du retard
+     */
+    public int awaitTicks() {
+        long now = System.nanoTime();
+
+        if(now - nextTick < 0) {
+            pause(nextTick);
+            now = System.nanoTime();
+        }
+
+        long lateness = now - nextTick;
+        long due = 1 + lateness / tickNanos;
+        int toRun = (int) Math.min(due, maxCatchUp);
+
+        if(due > 1) {
+            overruns++;
+            maxLateness = Math.max(maxLateness, lateness);
+        }
+
+        skippedTicks += due - toRun;
+        ticks += toRun;
+
+        // les ticks abandonnés ne sont pas rattrapés plus tard
+        nextTick += due * tickNanos;
+
+        return toRun;
+    }
+
+    /**
+     * Attend l'échéance donnée : on dort, puis on attend activement
+     */
+    private static void pause(long deadline) {
+        while(true) {
+            long remaining = deadline - System.nanoTime();
+
+            if(remaining <= 0)
+                return;
+
+            if(remaining > SPIN_THRESHOLD) {
+                long sleep = remaining - SPIN_THRESHOLD;
+
+                try {
+                    Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Nombre de ticks simulés depuis la création
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Nombre de fois où la boucle a dû rattraper du retard
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * Nombre de ticks abandonnés faute de pouvoir les rattraper
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * Plus grand retard constaté, en nanosecondes
+     */
+    public long getMaxLateness() {
+        return maxLateness;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ticks à %d Hz, %d retards (max %.1f ms), %d ticks abandonnés",
+                             ticks, ticksPerSecond, overruns, maxLateness / 1e6,
+                             skippedTicks);
+    }
+}
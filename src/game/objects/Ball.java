@@ -22,47 +22,80 @@
 
 package game.objects;
 
-import java.awt.Graphics;
-import java.awt.Point;
-import java.awt.Rectangle;
-import java.io.IOException;
+import game.Constants;
 
 
-public class Ball extends GraphicObject {
-    private static final long serialVersionUID = 1L;
-    private Point speed;
+/**
+ * La balle. Sa position (x, y) est celle de son centre.
+ */
+public class Ball extends GameObject {
+    private int speedX, speedY;
+
+    /**
+     * Fractions de pixels accumulées lorsque la simulation ne tourne pas à
+     * la fréquence de référence
+     */
+    private int remainderX, remainderY;
 
-    public Ball(String img) throws IOException {
-        super(img);
+    public Ball() {
+        super(Constants.BALL_SIZE, Constants.BALL_SIZE);
+    }
 
-        speed = new Point(0, 0);
+    public int getSpeedX() {
+        return speedX;
     }
 
-    public Point getSpeed() {
-        return speed;
+    public int getSpeedY() {
+        return speedY;
     }
 
     public void setSpeed(int x, int y) {
-        speed.x = x;
-        speed.y = y;
+        speedX = x;
+        speedY = y;
+
+        remainderX = remainderY = 0;
     }
 
     /**
 	 * Déplace la balle selon sa vitesse actuelle.
 	 */
     public void move() {
-        x += speed.x;
-		y += speed.y;
+        x += speedX;
+		y += speedY;
+    }
+
+    /**
+     * Déplace la balle selon sa vitesse actuelle, pour un tick d'une
+     * simulation tournant à tickRate Hz alors que la vitesse est exprimée
+     * pour referenceRate Hz. Les fractions de pixels sont conservées d'un
+     * tick à l'autre.
+     */
+    public void move(int referenceRate, int tickRate) {
+        if(referenceRate == tickRate) {
+            move();
+            return;
+        }
+
+        remainderX += speedX * referenceRate;
+        remainderY += speedY * referenceRate;
+
+        int dx = remainderX / tickRate;
+        int dy = remainderY / tickRate;
+
+        remainderX -= dx * tickRate;
+        remainderY -= dy * tickRate;
+
+        x += dx;
+        y += dy;
     }
 
     @Override
-    public void drawOn(Graphics g) {
-        g.drawImage(img, x - (int) getWidth() / 2, y - (int) getHeight() / 2, null);
+    public int getLeft() {
+        return x - getWidth() / 2;
     }
 
     @Override
-    public Rectangle getZone() {
-        return new Rectangle(x - (int) getWidth() / 2, y - (int) getHeight() / 2,
-                             (int) getWidth(), (int) getHeight());
+    public int getTop() {
+        return y - getHeight() / 2;
     }
 }
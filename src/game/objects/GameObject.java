@@ -0,0 +1,92 @@
+/*
+ *  GameObject.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.objects;
+
+
+/**
+ * Un objet du terrain : une position et une taille.
+ *
+ * Les objets ne savent pas se dessiner (cf. game.view.Sprite) : ils peuvent
+ * donc être utilisés sans interface graphique, par le serveur dédié par
+ * exemple.
+ */
+public abstract class GameObject {
+    public int x, y;
+
+    private final int width, height;
+
+
+    public GameObject(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public void setPos(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Abscisse du bord gauche de l'objet
+     */
+    public int getLeft() {
+        return x;
+    }
+
+    /**
+     * Ordonnée du bord supérieur de l'objet
+     */
+    public int getTop() {
+        return y;
+    }
+
+    /**
+     * Indique si l'objet est présent sur le terrain (un objet caché n'est ni
+     * touché ni affiché)
+     */
+    public boolean isVisible() {
+        return true;
+    }
+
+    /**
+     * Indique si les zones occupées par deux objets se chevauchent
+     *
+     * @param other Objet à tester
+     *
+     * @return true s'il y a chevauchement
+     */
+    public boolean intersects(GameObject other) {
+        return getLeft() < other.getLeft() + other.width
+            && other.getLeft() < getLeft() + width
+            && getTop() < other.getTop() + other.height
+            && other.getTop() < getTop() + height;
+    }
+}
@@ -22,16 +22,16 @@
 
 package game.objects;
 
-import java.io.IOException;
+import game.Constants;
 
 
-public class Player extends GraphicObject {
+public class Player extends GameObject {
     private int id;
     private int score = 0;
 
-    public Player(int id, String img) throws IOException {
-        super(img);
-        
+    public Player(int id) {
+        super(Constants.RACKET_WIDTH, Constants.RACKET_HEIGHT);
+
         this.id = id;
         setPos(-1, -1);
     }
@@ -22,39 +22,45 @@
 
 package game.objects;
 
-import java.awt.Dimension;
-import java.io.IOException;
+import game.Constants;
 import java.util.Random;
 
 
-public class Wall extends GraphicObject {
+public class Wall extends GameObject {
     private boolean isVisible = false;
-    private Dimension zone;
+    private int zoneWidth, zoneHeight;
     private int margin;
 
 
-    public Wall(String img, Dimension zone, int margin) throws IOException {
-        super(img);
+    /**
+     * @param zoneWidth Largeur de la zone dans laquelle le mur se déplace
+     * @param zoneHeight Hauteur de la zone dans laquelle le mur se déplace
+     * @param margin Décalage de la zone par rapport au coin du terrain
+     */
+    public Wall(int zoneWidth, int zoneHeight, int margin) {
+        super(Constants.WALL_WIDTH, Constants.WALL_HEIGHT);
 
-        this.zone = zone;
+        this.zoneWidth = zoneWidth;
+        this.zoneHeight = zoneHeight;
         this.margin = margin;
     }
 
     /**
      * Déplace le mur de manière aléatoire dans la zone définie lors de sa
      * création
+     *
+     * @param r Générateur de nombres aléatoires à utiliser
      */
-    public void move() {
-        Random r = new Random();
-
-        x = r.nextInt((int) zone.getWidth()) + margin;
-        y = r.nextInt((int) zone.getHeight()) + margin;
+    public void move(Random r) {
+        x = r.nextInt(zoneWidth) + margin;
+        y = r.nextInt(zoneHeight) + margin;
     }
 
     public void setVisible(boolean visible) {
         isVisible = visible;
     }
 
+    @Override
     public boolean isVisible() {
         return isVisible;
     }
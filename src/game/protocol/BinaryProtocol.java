@@ -0,0 +1,475 @@
+/*
+ *  BinaryProtocol.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import game.Constants;
+import game.Constants.State;
+import java.nio.ByteBuffer;
+
+import network.SequenceNumbers;
+import network.SessionTokens;
+
+
+/**
+ * Protocole binaire à format fixe : chaque instruction commence par son
+ * code (un octet, cf. Constants.OP_*) suivi de ses arguments.
+ *
+ * Les coordonnées et les scores sont codés sur deux octets signés, les
+ * identifiants de joueurs, les états et les booléens sur un octet.
+ *
+ * Le premier octet d'un datagramme binaire n'est jamais un caractère
+ * imprimable, ce qui permet de le distinguer d'un message texte.
+ *
+ * Ni l'encodage ni le décodage n'allouent d'objet.
+ */
+public final class BinaryProtocol implements Protocol {
+    /**
+     * Taille maximale d'une instruction encodée (un instantané complet, au
+     * pire)
+     */
+    public static final int MAX_MESSAGE_SIZE = 4 + Snapshot.MAX_SIZE;
+
+    /**
+     * Taille de l'entête d'un message fiable (code, numéro, longueur), et
+     * d'un acquittement
+     */
+    public static final int RELIABLE_HEADER_SIZE = 4;
+    public static final int ACK_SIZE = 7;
+
+    /**
+     * Taille de l'entête d'un datagramme (code, numéro, tick)
+     */
+    public static final int FRAME_HEADER_SIZE = 7;
+
+    /**
+     * Taille d'un ping et d'un pong
+     */
+    public static final int PING_SIZE = 5;
+    public static final int PONG_SIZE = 10;
+
+    /**
+     * Taille d'un jeton de session ou d'une demande de reprise
+     */
+    public static final int SESSION_SIZE = 9;
+
+    private static final State[] STATES = State.values();
+
+
+    @Override
+    public void writeMove(ByteBuffer out, int player, int y) {
+        out.put(Constants.OP_MOVE).put((byte) player).putShort((short) y);
+    }
+
+    @Override
+    public void writeBall(ByteBuffer out, int x, int y) {
+        out.put(Constants.OP_BALL).putShort((short) x).putShort((short) y);
+    }
+
+    @Override
+    public void writeScore(ByteBuffer out, int player, int score) {
+        out.put(Constants.OP_SCORE).put((byte) player).putShort((short) score);
+    }
+
+    @Override
+    public void writeContact(ByteBuffer out) {
+        out.put(Constants.OP_CONTACT);
+    }
+
+    @Override
+    public void writeWallTouched(ByteBuffer out) {
+        out.put(Constants.OP_WALL_TOUCHED);
+    }
+
+    @Override
+    public void writeState(ByteBuffer out, State state) {
+        out.put(Constants.OP_STATE_CHANGED).put((byte) state.ordinal());
+    }
+
+    @Override
+    public void writeWallPos(ByteBuffer out, int x, int y, boolean visible) {
+        out.put(Constants.OP_WALL_POS).putShort((short) x).putShort((short) y)
+           .put((byte) (visible ? 1 : 0));
+    }
+
+    @Override
+    public void writeInput(ByteBuffer out, int player, int sequence, int y) {
+        out.put(Constants.OP_INPUT).put((byte) player).putShort((short) sequence)
+           .putShort((short) y);
+    }
+
+    @Override
+    public void writeInputAck(ByteBuffer out, int player, int sequence, int y) {
+        out.put(Constants.OP_INPUT_ACK).put((byte) player).putShort((short) sequence)
+           .putShort((short) y);
+    }
+
+    @Override
+    public boolean supportsBatching() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsReliable() {
+        return true;
+    }
+
+    @Override
+    public void writeReliable(ByteBuffer out, int sequence, byte[] message) {
+        out.put(Constants.OP_RELIABLE).putShort((short) sequence)
+           .put((byte) message.length).put(message);
+    }
+
+    @Override
+    public void writeAck(ByteBuffer out, int ack, int bits) {
+        out.put(Constants.OP_ACK).putShort((short) ack).putInt(bits);
+    }
+
+    @Override
+    public boolean supportsSnapshots() {
+        return true;
+    }
+
+    /**
+     * La référence est indiquée par son écart avec le numéro de
+     * l'instantané, sur un octet (0 pour un instantané complet)
+     */
+    @Override
+    public void writeSnapshot(ByteBuffer out, int sequence, int baseline,
+                              Snapshot snapshot, Snapshot base) {
+        int offset = baseline < 0 ? 0 : SequenceNumbers.distance(sequence, baseline);
+
+        out.put(Constants.OP_SNAPSHOT).putShort((short) sequence).put((byte) offset);
+        snapshot.writeDelta(out, base);
+    }
+
+    @Override
+    public void writeSnapshotAck(ByteBuffer out, int sequence) {
+        out.put(Constants.OP_SNAPSHOT_ACK).putShort((short) sequence);
+    }
+
+    @Override
+    public boolean supportsFrameHeader() {
+        return true;
+    }
+
+    @Override
+    public void writeFrameHeader(ByteBuffer out, int sequence, long tick) {
+        out.put(Constants.OP_FRAME).putShort((short) sequence).putInt((int) tick);
+    }
+
+    @Override
+    public boolean supportsPing() {
+        return true;
+    }
+
+    @Override
+    public void writePing(ByteBuffer out, int time) {
+        out.put(Constants.OP_PING).putInt(time);
+    }
+
+    @Override
+    public void writePong(ByteBuffer out, int echo, int hold, int loss) {
+        out.put(Constants.OP_PONG).putInt(echo).putInt(hold).put((byte) loss);
+    }
+
+    @Override
+    public void writeDisconnect(ByteBuffer out) {
+        out.put(Constants.OP_DISCONNECT);
+    }
+
+    @Override
+    public boolean supportsSession() {
+        return true;
+    }
+
+    @Override
+    public void writeSession(ByteBuffer out, long token) {
+        out.put(Constants.OP_SESSION).putLong(token);
+    }
+
+    @Override
+    public void writeResume(ByteBuffer out, long token) {
+        out.put(Constants.OP_RESUME).putLong(token);
+    }
+
+    /**
+     * Cherche une demande de reprise au début d'un datagramme (après son
+     * entête), sans le décoder : c'est ce qui permet d'accepter un
+     * datagramme venu d'une adresse inconnue. La position du buffer n'est
+     * pas modifiée.
+     *
+     * @return Le jeton présenté, SessionTokens.NONE s'il n'y en a pas
+     */
+    public static long peekResume(ByteBuffer in) {
+        int position = in.position();
+
+        if(in.remaining() >= FRAME_HEADER_SIZE && in.get(position) == Constants.OP_FRAME)
+            position += FRAME_HEADER_SIZE;
+
+        if(in.limit() - position < SESSION_SIZE || in.get(position) != Constants.OP_RESUME)
+            return SessionTokens.NONE;
+
+        return in.getLong(position + 1);
+    }
+
+    /**
+     * Les messages d'état qui suivent l'entête d'un datagramme périmé sont
+     * sautés (cf. MessageListener.onFrameMessage())
+     */
+    @Override
+    public void read(ByteBuffer in, MessageListener listener) {
+        boolean stale = false;
+
+        while(in.hasRemaining()) {
+            byte op = in.get(in.position());
+
+            if(op == Constants.OP_FRAME) {
+                if(in.remaining() < FRAME_HEADER_SIZE)
+                    return;
+
+                in.get();
+                stale = !listener.onFrameMessage(in.getShort() & 0xFFFF,
+                                                 in.getInt() & 0xFFFFFFFFL);
+                continue;
+            }
+
+            if(stale && isState(op)) {
+                if(!skipMessage(in))
+                    return;
+                continue;
+            }
+
+            if(!readMessage(in, listener))
+                return;
+        }
+    }
+
+    /**
+     * Messages qui ne valent que jusqu'à l'arrivée du suivant : ceux d'un
+     * datagramme périmé ne doivent pas écraser ceux déjà appliqués
+     */
+    private static boolean isState(byte op) {
+        switch(op) {
+            case Constants.OP_MOVE:
+            case Constants.OP_BALL:
+            case Constants.OP_INPUT:
+            case Constants.OP_INPUT_ACK:
+            case Constants.OP_SNAPSHOT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Saute un message d'état sans le transmettre
+     *
+     * @return false s'il est tronqué
+     */
+    private static boolean skipMessage(ByteBuffer in) {
+        byte op = in.get();
+
+        if(in.remaining() < payloadSize(op))
+            return false;
+
+        in.position(in.position() + payloadSize(op));
+
+        return op != Constants.OP_SNAPSHOT || Snapshot.skipDelta(in);
+    }
+
+    /**
+     * Décode une instruction
+     *
+     * @return false si l'instruction est inconnue ou tronquée : le reste du
+     *         datagramme ne peut alors pas être interprété
+     */
+    private boolean readMessage(ByteBuffer in, MessageListener listener) {
+        byte op = in.get();
+
+        if(in.remaining() < payloadSize(op))
+            return false;
+
+        switch(op) {
+            case Constants.OP_MOVE:
+                listener.onMoveMessage(in.get(), in.getShort());
+                break;
+            case Constants.OP_BALL:
+                listener.onBallMessage(in.getShort(), in.getShort());
+                break;
+            case Constants.OP_SCORE:
+                listener.onScoreMessage(in.get(), in.getShort());
+                break;
+            case Constants.OP_CONTACT:
+                listener.onContactMessage();
+                break;
+            case Constants.OP_WALL_TOUCHED:
+                listener.onWallTouchedMessage();
+                break;
+            case Constants.OP_STATE_CHANGED:
+                int state = in.get();
+
+                if(state < 0 || state >= STATES.length)
+                    return false;
+
+                listener.onStateMessage(STATES[state]);
+                break;
+            case Constants.OP_WALL_POS:
+                listener.onWallPosMessage(in.getShort(), in.getShort(), in.get() != 0);
+                break;
+            case Constants.OP_INPUT:
+                listener.onInputMessage(in.get(), in.getShort() & 0xFFFF, in.getShort());
+                break;
+            case Constants.OP_INPUT_ACK:
+                listener.onInputAckMessage(in.get(), in.getShort() & 0xFFFF, in.getShort());
+                break;
+            case Constants.OP_RELIABLE:
+                return readReliable(in, listener);
+            case Constants.OP_ACK:
+                listener.onAckMessage(in.getShort() & 0xFFFF, in.getInt());
+                break;
+            case Constants.OP_SNAPSHOT:
+                return readSnapshot(in, listener);
+            case Constants.OP_SNAPSHOT_ACK:
+                listener.onSnapshotAckMessage(in.getShort() & 0xFFFF);
+                break;
+            case Constants.OP_PING:
+                listener.onPingMessage(in.getInt());
+                break;
+            case Constants.OP_PONG:
+                listener.onPongMessage(in.getInt(), in.getInt(), in.get() & 0xFF);
+                break;
+            case Constants.OP_DISCONNECT:
+                listener.onDisconnectMessage();
+                break;
+            case Constants.OP_SESSION:
+                listener.onSessionMessage(in.getLong());
+                break;
+            case Constants.OP_RESUME:
+                listener.onResumeMessage(in.getLong());
+                break;
+            default:
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Décode un message fiable : le message lui-même est transmis encodé,
+     * le ReliableChannel le décodera quand viendra son tour
+     */
+    private boolean readReliable(ByteBuffer in, MessageListener listener) {
+        int sequence = in.getShort() & 0xFFFF;
+        int length = in.get() & 0xFF;
+
+        if(in.remaining() < length)
+            return false;
+
+        // comme pour les instantanés, le message est lu dans le buffer du
+        // datagramme, réduit le temps de l'appel
+        int start = in.position();
+        int limit = in.limit();
+        in.limit(start + length);
+
+        try {
+            listener.onReliableMessage(sequence, in);
+        } finally {
+            in.limit(limit);
+            in.position(start + length);
+        }
+
+        return true;
+    }
+
+    /**
+     * Décode l'entête d'un instantané, et vérifie que la différence qui
+     * suit est complète avant de la transmettre
+     */
+    private boolean readSnapshot(ByteBuffer in, MessageListener listener) {
+        int sequence = in.getShort() & 0xFFFF;
+        int offset = in.get() & 0xFF;
+        int start = in.position();
+
+        if(!Snapshot.skipDelta(in))
+            return false;
+
+        // la différence est lue dans le buffer du datagramme lui-même,
+        // réduit le temps de l'appel
+        int end = in.position();
+        int limit = in.limit();
+        in.position(start);
+        in.limit(end);
+
+        try {
+            listener.onSnapshotMessage(sequence,
+                                       offset == 0 ? -1 : (sequence - offset) & SequenceNumbers.MASK,
+                                       in);
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+
+        return true;
+    }
+
+    /**
+     * Nombre d'octets suivant le code de l'instruction. Une instruction
+     * inconnue est traitée comme une instruction tronquée.
+     */
+    private static int payloadSize(byte op) {
+        switch(op) {
+            case Constants.OP_MOVE:
+            case Constants.OP_SCORE:
+                return 3;
+            case Constants.OP_BALL:
+                return 4;
+            case Constants.OP_CONTACT:
+            case Constants.OP_WALL_TOUCHED:
+            case Constants.OP_DISCONNECT:
+                return 0;
+            case Constants.OP_STATE_CHANGED:
+                return 1;
+            case Constants.OP_RELIABLE:
+                return RELIABLE_HEADER_SIZE - 1;
+            case Constants.OP_ACK:
+                return ACK_SIZE - 1;
+            case Constants.OP_SNAPSHOT:
+                return 3;
+            case Constants.OP_SNAPSHOT_ACK:
+                return 2;
+            case Constants.OP_PING:
+                return PING_SIZE - 1;
+            case Constants.OP_PONG:
+                return PONG_SIZE - 1;
+            case Constants.OP_SESSION:
+            case Constants.OP_RESUME:
+                return SESSION_SIZE - 1;
+            case Constants.OP_WALL_POS:
+            case Constants.OP_INPUT:
+            case Constants.OP_INPUT_ACK:
+                return 5;
+            default:
+                return Integer.MAX_VALUE;
+        }
+    }
+}
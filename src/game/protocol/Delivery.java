@@ -0,0 +1,92 @@
+/*
+ *  Delivery.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+
+/**
+ * Suivi de la livraison d'un message fiable (cf. ReliableChannel).
+ *
+ * L'envoi ne bloque jamais : on peut consulter l'état de la livraison
+ * quand on le souhaite, ou l'attendre explicitement avec await().
+ */
+public final class Delivery {
+    /**
+     * Livraison déjà effectuée, pour les messages qui ne passent pas par
+     * un canal fiable (protocole texte)
+     */
+    static final Delivery NOT_TRACKED = new Delivery(true);
+
+    private boolean done = false;
+    private boolean delivered = false;
+
+
+    Delivery() { }
+
+    private Delivery(boolean delivered) {
+        this.done = true;
+        this.delivered = delivered;
+    }
+
+    /**
+     * @return true si le message a été acquitté ou abandonné
+     */
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return true si le message a été acquitté
+     */
+    public synchronized boolean isDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Attend que le message soit acquitté ou abandonné
+     *
+     * @param timeout Temps d'attente maximal en millisecondes
+     *
+     * @return true si le message a été acquitté
+     *
+     * @throws InterruptedException Si l'attente est interrompue
+     */
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining;
+
+        while(!done && (remaining = deadline - System.currentTimeMillis()) > 0)
+            wait(remaining);
+
+        return delivered;
+    }
+
+    synchronized void complete(boolean delivered) {
+        if(done)
+            return;
+
+        this.done = true;
+        this.delivered = delivered;
+
+        notifyAll();
+    }
+}
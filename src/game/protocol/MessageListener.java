@@ -0,0 +1,138 @@
+/*
+ *  MessageListener.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import game.Constants.State;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Reçoit les instructions décodées par un Protocol.
+ *
+ * Les joueurs sont désignés par leur identifiant (1 ou 2).
+ */
+public interface MessageListener {
+    void onMoveMessage(int player, int y);
+
+    void onBallMessage(int x, int y);
+
+    void onScoreMessage(int player, int score);
+
+    void onContactMessage();
+
+    void onWallTouchedMessage();
+
+    void onStateMessage(State state);
+
+    void onWallPosMessage(int x, int y, boolean visible);
+
+    /**
+     * Mouvement numéroté d'une raquette (envoyé par un client qui prédit sa
+     * propre position)
+     */
+    void onInputMessage(int player, int sequence, int y);
+
+    /**
+     * Confirmation par le serveur du dernier mouvement numéroté appliqué,
+     * avec la position qu'il a retenue
+     */
+    void onInputAckMessage(int player, int sequence, int y);
+
+    /**
+     * Message du canal fiable, à transmettre au ReliableChannel qui le
+     * rendra dans l'ordre (cf. MessageSender.onReliable())
+     *
+     * @param sequence Numéro du message
+     * @param payload Message encodé, valable seulement pendant l'appel
+     */
+    void onReliableMessage(int sequence, ByteBuffer payload);
+
+    /**
+     * Acquittement des messages fiables envoyés
+     *
+     * @param ack Dernier numéro reçu dans l'ordre
+     * @param bits Bit i : le message ack + 1 + i a été reçu
+     */
+    void onAckMessage(int ack, int bits);
+
+    /**
+     * Instantané de la partie, sous forme de différence avec un instantané
+     * précédent (cf. SnapshotReceiver)
+     *
+     * @param sequence Numéro de l'instantané
+     * @param baseline Numéro de la référence, -1 pour un instantané complet
+     * @param delta Différence encodée, valable seulement pendant l'appel
+     */
+    void onSnapshotMessage(int sequence, int baseline, ByteBuffer delta);
+
+    /**
+     * Acquittement du dernier instantané reçu par le client
+     */
+    void onSnapshotAckMessage(int sequence);
+
+    /**
+     * Entête du datagramme en cours de décodage (mode binaire)
+     *
+     * @param sequence Numéro du datagramme
+     * @param tick Tick de la simulation du serveur auquel il correspond
+     *
+     * @return false si le datagramme est périmé (un plus récent a déjà été
+     *         reçu) : ses messages d'état (mouvements, balle, instantanés)
+     *         sont alors ignorés, les autres restent transmis
+     */
+    boolean onFrameMessage(int sequence, long tick);
+
+    /**
+     * Demande de mesure du lien, à laquelle répondre par un pong (cf.
+     * MessageSender.onPing())
+     *
+     * @param time Heure d'envoi selon l'horloge de l'hôte distant (µs)
+     */
+    void onPingMessage(int time);
+
+    /**
+     * Réponse à un de nos pings (cf. MessageSender.onPong())
+     *
+     * @param echo Heure d'envoi du ping (µs)
+     * @param hold Temps passé par le ping chez l'hôte distant (µs)
+     * @param loss Proportion des datagrammes perdus en route vers l'hôte
+     *             distant, sur 255
+     */
+    void onPongMessage(int echo, int hold, int loss);
+
+    /**
+     * Le joueur distant quitte la partie
+     */
+    void onDisconnectMessage();
+
+    /**
+     * Jeton de session remis par le serveur (cf. network.SessionTokens)
+     */
+    void onSessionMessage(long token);
+
+    /**
+     * Le client reprend sa partie (après un silence, peut-être depuis une
+     * nouvelle adresse) : il a besoin de l'état complet
+     */
+    void onResumeMessage(long token);
+}
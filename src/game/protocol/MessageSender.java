@@ -0,0 +1,659 @@
+/*
+ *  MessageSender.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import game.Constants.State;
+import game.objects.Ball;
+import game.objects.Player;
+import game.objects.Wall;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import network.LinkStats;
+import network.RttEstimator;
+import network.SequenceNumbers;
+import network.Transport;
+
+
+/**
+ * Encode les messages destinés au joueur distant dans un buffer réutilisé,
+ * puis les envoie.
+ *
+ * Les méthodes peuvent être appelées depuis plusieurs threads (celui du
+ * jeu et celui de l'interface par exemple) : elles sont synchronisées.
+ * Tant que le transport ou le destinataire ne sont pas connus, les
+ * messages sont ignorés.
+ *
+ * En mode binaire, les changements d'état, les scores et la position du
+ * mur passent par un canal fiable (cf. ReliableChannel) : chaque
+ * datagramme envoyé emporte les messages fiables à (r)envoyer et
+ * l'acquittement de ceux reçus.
+ *
+ * Toujours en mode binaire, les messages produits entre beginFrame() et
+ * endFrame() (typiquement pendant un tick) sont regroupés dans un seul
+ * datagramme d'au plus FRAME_SIZE octets, que le destinataire décode dans
+ * l'ordre. Le protocole texte ne sait décoder qu'un message par
+ * datagramme : ils y partent toujours un par un.
+ *
+ * L'état de la partie peut être envoyé sous forme d'instantanés
+ * (cf. sendSnapshot()), codés par différence avec le dernier que le
+ * destinataire a acquitté.
+ *
+ * Chaque datagramme binaire commence par un entête portant son numéro et
+ * le tick de la simulation (cf. setFrameTick()) : le destinataire peut
+ * ainsi ignorer l'état contenu dans un datagramme arrivé après un plus
+ * récent.
+ *
+ * Enfin, un ping part avec les messages au plus toutes les PING_INTERVAL
+ * nanosecondes, et le pong qui lui répond au prochain envoi (même s'il
+ * n'y a rien d'autre à envoyer) : ils mesurent la qualité du lien (cf.
+ * getLinkStats()). Si rien n'est parti depuis HEARTBEAT_INTERVAL, un ping
+ * part seul : le destinataire sait ainsi que l'on est toujours là.
+ */
+public class MessageSender {
+    /**
+     * Taille maximale d'un datagramme (celle des tampons de réception du
+     * transport)
+     */
+    public static final int FRAME_SIZE = Transport.MAX_DATAGRAM_SIZE;
+
+    /**
+     * Délai minimal entre deux pings, en nanosecondes
+     */
+    public static final long PING_INTERVAL = 100000000L;
+
+    /**
+     * Silence maximal avant l'envoi d'un ping seul, en nanosecondes
+     */
+    public static final long HEARTBEAT_INTERVAL = 500000000L;
+
+    /**
+     * Nombre d'exemplaires de l'annonce de départ (elle n'est pas
+     * acquittée : à défaut, le destinataire finira par constater le
+     * silence)
+     */
+    private static final int DISCONNECT_COPIES = 3;
+
+    private final ByteBuffer out = ByteBuffer.allocateDirect(FRAME_SIZE);
+
+    /**
+     * Vrai entre beginFrame() et endFrame() : les messages s'accumulent dans
+     * le datagramme en cours au lieu de partir un par un
+     */
+    private boolean batching = false;
+
+    /**
+     * Taille de l'entête réservé au début du datagramme en cours (0 sans
+     * entête), numéro du prochain datagramme envoyé et tick à y indiquer
+     */
+    private int headerSize = 0;
+    private int frameSequence = 0;
+    private long frameTick = 0;
+
+    private Transport sock;
+    private Protocol protocol = new TextProtocol();
+
+    /**
+     * Destinataire, créé une fois pour toutes (un serveur dédié envoie à
+     * tous ses clients par la même connexion)
+     */
+    private InetSocketAddress destination;
+
+    private final LinkStats link = new LinkStats(new RttEstimator());
+    private final ReliableChannel reliable = new ReliableChannel(link.getRttEstimator());
+
+    /**
+     * Heure d'envoi du dernier ping, et ping reçu auquel répondre
+     */
+    private long lastPingAt;
+    private long lastSentAt = System.nanoTime();
+    private boolean pongPending = false;
+    private int pongEcho;
+    private long pingReceivedAt;
+
+    /**
+     * Heure de réception du datagramme en cours de décodage (cf.
+     * onDatagram()), et heure avant laquelle les pings envoyés ne donnent
+     * plus de mesure (cf. discardSamplesBefore())
+     */
+    private long arrivalAt = System.nanoTime();
+    private volatile long samplesValidFrom = System.nanoTime();
+
+    /**
+     * Instantanés envoyés, numéro du prochain, et numéro du dernier
+     * acquitté par le destinataire (-1 tant qu'il n'y en a pas)
+     */
+    private final SnapshotHistory sentSnapshots = new SnapshotHistory();
+    private final Snapshot emptySnapshot = new Snapshot();
+    private int snapshotSequence = 0;
+    private int snapshotBaseline = -1;
+
+
+    public synchronized void setTransport(Transport sock) {
+        this.sock = sock;
+    }
+
+    public synchronized void setProtocol(Protocol protocol) {
+        this.protocol = protocol;
+    }
+
+    public synchronized void setDestination(InetAddress host, int port) {
+        destination = host == null ? null : new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Fixe le tick indiqué dans l'entête des prochains datagrammes : celui
+     * de la simulation pour le serveur, le dernier reçu du serveur pour un
+     * client
+     */
+    public synchronized void setFrameTick(long tick) {
+        frameTick = tick;
+    }
+
+    public synchronized void sendMove(Player player) throws IOException {
+        begin();
+        protocol.writeMove(out, player.getId(), player.y);
+        end();
+    }
+
+    public synchronized void sendBall(Ball ball) throws IOException {
+        begin();
+        protocol.writeBall(out, ball.x, ball.y);
+        end();
+    }
+
+    public synchronized Delivery sendScore(Player player) throws IOException {
+        begin();
+        int start = out.position();
+        protocol.writeScore(out, player.getId(), player.getScore());
+        return sendReliable(start);
+    }
+
+    public synchronized void sendContact() throws IOException {
+        begin();
+        protocol.writeContact(out);
+        end();
+    }
+
+    public synchronized void sendWallTouched() throws IOException {
+        begin();
+        protocol.writeWallTouched(out);
+        end();
+    }
+
+    public synchronized Delivery sendState(State state) throws IOException {
+        begin();
+        int start = out.position();
+        protocol.writeState(out, state);
+        return sendReliable(start);
+    }
+
+    public synchronized Delivery sendWallPos(Wall wall) throws IOException {
+        begin();
+        int start = out.position();
+        protocol.writeWallPos(out, wall.x, wall.y, wall.isVisible());
+        return sendReliable(start);
+    }
+
+    public synchronized void sendInput(Player player, int sequence) throws IOException {
+        begin();
+        protocol.writeInput(out, player.getId(), sequence, player.y);
+        end();
+    }
+
+    public synchronized void sendInputAck(Player player, int sequence) throws IOException {
+        begin();
+        protocol.writeInputAck(out, player.getId(), sequence, player.y);
+        end();
+    }
+
+    /**
+     * @return true si l'état de la partie peut être envoyé par instantanés
+     */
+    public synchronized boolean supportsSnapshots() {
+        return protocol.supportsSnapshots();
+    }
+
+    /**
+     * Envoie l'état de la partie, codé par différence avec le dernier
+     * instantané acquitté. Rien n'est envoyé si le destinataire a déjà cet
+     * état. Tant que l'état courant n'est pas acquitté, il est renvoyé à
+     * chaque appel : c'est ce qui le rend fiable.
+     *
+     * @param snapshot Etat courant de la partie (copié)
+     */
+    public synchronized void sendSnapshot(Snapshot snapshot) throws IOException {
+        Snapshot base = snapshotBaseline();
+
+        if(base != null && snapshot.diff(base) == 0)
+            return;
+
+        int sequence = snapshotSequence;
+        snapshotSequence = SequenceNumbers.next(snapshotSequence);
+        sentSnapshots.store(sequence).copyFrom(snapshot);
+
+        begin();
+        if(base != null)
+            protocol.writeSnapshot(out, sequence, snapshotBaseline, snapshot, base);
+        else
+            protocol.writeSnapshot(out, sequence, -1, snapshot, emptySnapshot);
+        end();
+    }
+
+    public synchronized void sendSnapshotAck(int sequence) throws IOException {
+        begin();
+        protocol.writeSnapshotAck(out, sequence);
+        end();
+    }
+
+    /**
+     * Prend en compte l'acquittement d'un instantané : il devient la
+     * référence des suivants
+     */
+    public synchronized void onSnapshotAck(int sequence) {
+        if(sentSnapshots.get(sequence) == null)
+            return;
+
+        if(snapshotBaseline < 0 || SequenceNumbers.isNewer(sequence, snapshotBaseline))
+            snapshotBaseline = sequence;
+    }
+
+    /**
+     * @return true si le destinataire a acquitté cet état de la partie
+     */
+    public synchronized boolean isSnapshotAcknowledged(Snapshot snapshot) {
+        Snapshot base = snapshotBaseline();
+
+        return base != null && snapshot.diff(base) == 0;
+    }
+
+    /**
+     * @return Le dernier instantané acquitté, null s'il n'y en a pas ou s'il
+     *         est trop ancien pour servir de référence
+     */
+    private Snapshot snapshotBaseline() {
+        if(snapshotBaseline < 0
+           || SequenceNumbers.distance(snapshotSequence, snapshotBaseline) >= SnapshotHistory.SIZE)
+            return null;
+
+        return sentSnapshots.get(snapshotBaseline);
+    }
+
+    /**
+     * Les messages suivants seront regroupés jusqu'à l'appel à endFrame()
+     * (sans effet en mode texte)
+     */
+    public synchronized void beginFrame() {
+        if(batching || !protocol.supportsBatching())
+            return;
+
+        batching = true;
+        open();
+    }
+
+    /**
+     * Envoie le datagramme en cours, accompagné de ce que le canal fiable a
+     * à envoyer, et revient à l'envoi message par message
+     */
+    public synchronized void endFrame() throws IOException {
+        if(!batching)
+            return;
+
+        batching = false;
+        flush();
+    }
+
+    /**
+     * Envoie tout de suite le datagramme en cours, sans quitter le mode
+     * regroupé (avant une opération bloquante par exemple)
+     */
+    public synchronized void flushFrame() throws IOException {
+        if(!batching)
+            return;
+
+        flush();
+        open();
+    }
+
+    /**
+     * Prépare l'écriture d'un message : buffer vidé hors regroupement,
+     * datagramme en cours envoyé s'il n'a plus la place
+     */
+    private void begin() throws IOException {
+        if(!batching) {
+            open();
+            return;
+        }
+
+        if(out.remaining() < BinaryProtocol.MAX_MESSAGE_SIZE) {
+            flush();
+            open();
+        }
+    }
+
+    /**
+     * Commence un nouveau datagramme : buffer vidé, place de l'entête
+     * réservée (il n'est écrit qu'à l'envoi, avec le tick du moment)
+     */
+    private void open() {
+        out.clear();
+
+        if(protocol.supportsFrameHeader())
+            protocol.writeFrameHeader(out, frameSequence, frameTick);
+
+        headerSize = out.position();
+    }
+
+    /**
+     * Le message est écrit : il part tout de suite hors regroupement
+     */
+    private void end() throws IOException {
+        if(!batching)
+            flush();
+    }
+
+    /**
+     * Envoie sans attendre les acquittements et les messages fiables à
+     * renvoyer, s'il y en a. A appeler régulièrement, pour le cas où aucun
+     * autre message ne partirait.
+     */
+    public synchronized void flushReliable() throws IOException {
+        if(batching || !protocol.supportsReliable()
+           || !(pongPending || reliable.hasPendingOutput(System.nanoTime())))
+            return;
+
+        open();
+        flush();
+    }
+
+    /**
+     * @return true si des messages fiables n'ont pas encore été acquittés
+     */
+    public boolean hasUnacknowledged() {
+        return reliable.hasUnacknowledged();
+    }
+
+    public RttEstimator getRttEstimator() {
+        return reliable.getRttEstimator();
+    }
+
+    /**
+     * @return true si l'on envoie régulièrement de quoi prouver que l'on
+     *         est toujours là, et que l'on peut en attendre autant du
+     *         destinataire (mode binaire)
+     */
+    public synchronized boolean supportsHeartbeat() {
+        return protocol.supportsPing();
+    }
+
+    /**
+     * Annonce au destinataire que l'on quitte la partie, puis abandonne les
+     * messages fiables pas encore acquittés
+     */
+    public synchronized void sendDisconnect() throws IOException {
+        batching = false;
+
+        for(int i = 0; i < DISCONNECT_COPIES; i++) {
+            open();
+            protocol.writeDisconnect(out);
+            flush();
+        }
+
+        close();
+    }
+
+    /**
+     * @return true si le destinataire peut recevoir un jeton de session et
+     *         s'en servir pour reprendre la partie (mode binaire)
+     */
+    public synchronized boolean supportsSession() {
+        return protocol.supportsSession();
+    }
+
+    /**
+     * Remet au client son jeton de session, par le canal fiable
+     */
+    public synchronized Delivery sendSession(long token) throws IOException {
+        begin();
+        int start = out.position();
+        protocol.writeSession(out, token);
+        return sendReliable(start);
+    }
+
+    /**
+     * Demande au serveur de reprendre la partie, dans un datagramme à part
+     * (la demande doit en être le premier message)
+     */
+    public synchronized void sendResume(long token) throws IOException {
+        boolean wasBatching = batching;
+
+        if(batching)
+            flush();
+
+        open();
+        protocol.writeResume(out, token);
+        flush();
+
+        if(wasBatching)
+            open();
+    }
+
+    /**
+     * Reprise de la partie par le destinataire : le prochain instantané est
+     * complet, les messages fiables en attente sont renvoyés tout de suite
+     */
+    public synchronized void resync() {
+        snapshotBaseline = -1;
+        reliable.resendNow();
+    }
+
+    /**
+     * @return Qualité du lien avec le destinataire
+     */
+    public LinkStats getLinkStats() {
+        return link;
+    }
+
+    /**
+     * Un datagramme va être décodé : les pings et pongs qu'il contient sont
+     * datés de sa réception, pas de leur traitement (la boucle de jeu peut
+     * avoir pris du retard)
+     *
+     * @param receivedAt Heure de réception du datagramme (cf.
+     *                   network.Paquet.getReceivedAt())
+     */
+    public synchronized void onDatagram(long receivedAt) {
+        arrivalAt = receivedAt;
+    }
+
+    /**
+     * Les pings envoyés jusqu'ici ne donneront pas de mesure : à appeler
+     * après un blocage de la boucle, dont la durée fausserait les temps
+     * d'aller-retour
+     *
+     * @param now Heure courante (System.nanoTime())
+     */
+    public void discardSamplesBefore(long now) {
+        samplesValidFrom = now;
+    }
+
+    /**
+     * Ping reçu : le pong partira avec le prochain envoi
+     *
+     * @param time Heure d'envoi du ping par l'hôte distant (µs)
+     */
+    public synchronized void onPing(int time) {
+        pongPending = true;
+        pongEcho = time;
+        pingReceivedAt = arrivalAt;
+    }
+
+    /**
+     * Pong reçu : le temps d'aller-retour est le temps écoulé entre l'envoi
+     * du ping et la réception du pong, moins celui que le ping a passé chez
+     * l'hôte distant
+     */
+    public void onPong(int echo, int hold, int loss) {
+        long receivedAt;
+        synchronized(this) {
+            receivedAt = arrivalAt;
+        }
+
+        // différence sur 32 bits : insensible au retour à zéro de l'heure
+        int elapsed = micros(receivedAt) - echo;
+
+        // ping parti avant un blocage de la boucle
+        if(echo - micros(samplesValidFrom) < 0)
+            return;
+
+        if(elapsed < 0 || hold < 0 || hold > elapsed)
+            return;
+
+        link.addRttSample((elapsed - hold) * 1000L);
+        link.setRemoteLoss(loss / 255.0);
+    }
+
+    private static int micros(long nanos) {
+        return (int) (nanos / 1000);
+    }
+
+    /**
+     * Prend en compte un message fiable reçu, et décode ceux qui sont prêts
+     * dans l'ordre de leur envoi
+     *
+     * @param sequence Numéro du message
+     * @param payload Message encodé
+     * @param listener Destinataire des messages décodés
+     */
+    public void onReliable(int sequence, ByteBuffer payload, MessageListener listener) {
+        reliable.receive(sequence, payload);
+
+        Protocol decoder;
+        synchronized(this) {
+            decoder = protocol;
+        }
+
+        // décodage hors verrou : le listener est susceptible d'envoyer des
+        // messages depuis un autre thread
+        ByteBuffer message;
+        while((message = reliable.poll()) != null)
+            decoder.read(message, listener);
+    }
+
+    /**
+     * Prend en compte un acquittement reçu
+     */
+    public void onAck(int ack, int bits) {
+        reliable.onAck(ack, bits, System.nanoTime());
+    }
+
+    /**
+     * Abandonne les messages fiables pas encore acquittés
+     */
+    public void close() {
+        reliable.close();
+    }
+
+    /**
+     * Confie au canal fiable le message qui vient d'être écrit dans le
+     * buffer (à partir de start), puis l'envoie. Sans canal fiable (mode
+     * texte), il est envoyé tel quel.
+     */
+    private Delivery sendReliable(int start) throws IOException {
+        if(!protocol.supportsReliable()) {
+            end();
+            return Delivery.NOT_TRACKED;
+        }
+
+        // le message est retiré du buffer : c'est le canal qui l'y écrira
+        byte[] message = new byte[out.position() - start];
+        for(int i = 0; i < message.length; i++)
+            message[i] = out.get(start + i);
+        out.position(start);
+
+        Delivery delivery = reliable.send(message);
+        end();
+
+        return delivery;
+    }
+
+    /**
+     * Ajoute le pong dû, et un ping s'il est temps et que le datagramme
+     * part de toute façon (ou que l'on n'a rien envoyé depuis trop
+     * longtemps)
+     */
+    private void writePingPong(long now) {
+        if(pongPending && out.remaining() >= BinaryProtocol.PONG_SIZE) {
+            int hold = micros(now - pingReceivedAt);
+            int loss = (int) Math.round(link.sampleLoss() * 255);
+
+            protocol.writePong(out, pongEcho, hold, loss);
+            pongPending = false;
+        }
+
+        boolean silent = now - lastSentAt >= HEARTBEAT_INTERVAL;
+
+        if((out.position() > headerSize || silent) && now - lastPingAt >= PING_INTERVAL
+           && out.remaining() >= BinaryProtocol.PING_SIZE) {
+            protocol.writePing(out, micros(now));
+            lastPingAt = now;
+        }
+    }
+
+    /**
+     * Envoie le contenu du buffer au destinataire, accompagné de ce que le
+     * canal fiable a à envoyer
+     */
+    private void flush() throws IOException {
+        if(sock == null || destination == null)
+            return;
+
+        long now = System.nanoTime();
+
+        if(protocol.supportsReliable())
+            reliable.write(out, protocol, now);
+
+        if(protocol.supportsPing())
+            writePingPong(now);
+
+        if(out.position() == headerSize)
+            return;
+
+        if(headerSize > 0) {
+            int end = out.position();
+            out.position(0);
+            protocol.writeFrameHeader(out, frameSequence, frameTick);
+            out.position(end);
+
+            // numéro consommé seulement par un datagramme envoyé : un trou
+            // chez le destinataire est alors une perte
+            frameSequence = SequenceNumbers.next(frameSequence);
+        }
+
+        out.flip();
+        sock.send(destination, out);
+        lastSentAt = now;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Protocol.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import game.Constants.State;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Encodage des instructions échangées entre le client et le serveur.
+ *
+ * Les méthodes write*() ajoutent une instruction à la suite du buffer
+ * donné (à partir de sa position courante), read() décode toutes les
+ * instructions présentes entre la position et la limite du buffer.
+ */
+public interface Protocol {
+    void writeMove(ByteBuffer out, int player, int y);
+
+    void writeBall(ByteBuffer out, int x, int y);
+
+    void writeScore(ByteBuffer out, int player, int score);
+
+    void writeContact(ByteBuffer out);
+
+    void writeWallTouched(ByteBuffer out);
+
+    void writeState(ByteBuffer out, State state);
+
+    void writeWallPos(ByteBuffer out, int x, int y, boolean visible);
+
+    void writeInput(ByteBuffer out, int player, int sequence, int y);
+
+    void writeInputAck(ByteBuffer out, int player, int sequence, int y);
+
+    /**
+     * Indique si read() sait décoder plusieurs messages regroupés dans un
+     * même datagramme
+     */
+    boolean supportsBatching();
+
+    /**
+     * Indique si le protocole sait transporter le canal fiable
+     * (writeReliable() et writeAck())
+     */
+    boolean supportsReliable();
+
+    void writeReliable(ByteBuffer out, int sequence, byte[] message);
+
+    void writeAck(ByteBuffer out, int ack, int bits);
+
+    /**
+     * Indique si le protocole sait transporter des instantanés de la partie
+     * (writeSnapshot() et writeSnapshotAck())
+     */
+    boolean supportsSnapshots();
+
+    /**
+     * @param sequence Numéro de l'instantané
+     * @param baseline Numéro de la référence, -1 pour un instantané complet
+     * @param snapshot Instantané à envoyer
+     * @param base Référence (instantané vide pour un instantané complet)
+     */
+    void writeSnapshot(ByteBuffer out, int sequence, int baseline, Snapshot snapshot, Snapshot base);
+
+    void writeSnapshotAck(ByteBuffer out, int sequence);
+
+    /**
+     * Indique si le protocole sait numéroter les datagrammes
+     * (writeFrameHeader())
+     */
+    boolean supportsFrameHeader();
+
+    /**
+     * Entête d'un datagramme, à écrire avant ses messages : il permet au
+     * destinataire d'écarter les messages d'état d'un datagramme arrivé
+     * après un plus récent
+     *
+     * @param sequence Numéro du datagramme
+     * @param tick Tick de la simulation du serveur auquel correspond le
+     *             datagramme (le dernier reçu, pour un client)
+     */
+    void writeFrameHeader(ByteBuffer out, int sequence, long tick);
+
+    /**
+     * Indique si le protocole sait transporter les mesures du lien
+     * (writePing() et writePong())
+     */
+    boolean supportsPing();
+
+    /**
+     * @param time Heure d'envoi, en microsecondes (sur 32 bits)
+     */
+    void writePing(ByteBuffer out, int time);
+
+    /**
+     * @param echo Heure d'envoi du ping auquel on répond
+     * @param hold Temps écoulé entre sa réception et cette réponse (µs)
+     * @param loss Proportion des datagrammes reçus perdus, sur 255
+     */
+    void writePong(ByteBuffer out, int echo, int hold, int loss);
+
+    /**
+     * Annonce que l'on quitte la partie
+     */
+    void writeDisconnect(ByteBuffer out);
+
+    /**
+     * Indique si le protocole sait transporter les jetons de session
+     * (writeSession() et writeResume())
+     */
+    boolean supportsSession();
+
+    /**
+     * Remise au client de son jeton de session
+     */
+    void writeSession(ByteBuffer out, long token);
+
+    /**
+     * Demande de reprise de la partie, éventuellement depuis une nouvelle
+     * adresse : doit être le premier message du datagramme (cf.
+     * BinaryProtocol.peekResume())
+     */
+    void writeResume(ByteBuffer out, long token);
+
+    /**
+     * Décode le contenu d'un datagramme et transmet chaque instruction
+     * reconnue au listener. Les instructions inconnues sont ignorées.
+     *
+     * @param in Données reçues
+     * @param listener Destinataire des instructions décodées
+     */
+    void read(ByteBuffer in, MessageListener listener);
+}
@@ -0,0 +1,341 @@
+/*
+ *  ReliableChannel.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import network.RttEstimator;
+import network.SequenceNumbers;
+
+
+/**
+ * Sous-canal fiable et ordonné, transporté dans les datagrammes ordinaires.
+ *
+ * Envoi : les messages sont numérotés et restent dans une fenêtre de
+ * WINDOW messages tant qu'ils ne sont pas acquittés. Chaque datagramme
+ * envoyé emporte ceux dont le délai de renvoi (RTO) a expiré, et ceux qui
+ * n'ont pas encore été envoyés. Au-delà de la fenêtre, les messages
+ * attendent qu'une place se libère.
+ *
+ * Réception : les messages arrivés dans le désordre sont mis de côté, et
+ * rendus dans l'ordre d'envoi. L'acquittement (dernier numéro reçu dans
+ * l'ordre, et un bit par message reçu au-delà) part avec le prochain
+ * datagramme.
+ *
+ * Le canal ne fait aucune entrée/sortie : c'est MessageSender qui l'écrit
+ * dans ses datagrammes.
+ */
+public final class ReliableChannel {
+    /**
+     * Nombre maximal de messages envoyés et pas encore acquittés. Un
+     * acquittement couvre toute la fenêtre (32 bits).
+     */
+    public static final int WINDOW = 32;
+
+    /**
+     * Taille maximale d'un message (sa longueur est codée sur un octet)
+     */
+    public static final int MAX_MESSAGE_SIZE = 255;
+
+    /**
+     * Message en attente d'acquittement
+     */
+    private static final class Outgoing {
+        final byte[] data;
+        final Delivery delivery = new Delivery();
+
+        long sentAt = 0;
+        long due = 0;
+        boolean sent = false;
+        boolean retransmitted = false;
+
+        Outgoing(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final RttEstimator rtt;
+
+    /*
+     * Envoi : messages numérotés de sendBase (inclus) à nextSeq (exclu),
+     * rangés dans window selon leur numéro
+     */
+    private final Outgoing[] window = new Outgoing[WINDOW];
+    private final Queue<Outgoing> backlog = new ArrayDeque<Outgoing>();
+    private int sendBase = 0;
+    private int nextSeq = 0;
+
+    /*
+     * Réception : prochain numéro attendu, messages reçus en avance. Chaque
+     * place de la fenêtre a son buffer, alloué une fois pour toutes.
+     */
+    private final ByteBuffer[] received = new ByteBuffer[WINDOW];
+    private final boolean[] arrived = new boolean[WINDOW];
+    private int expected = 0;
+    private boolean ackPending = false;
+
+    private boolean closed = false;
+
+
+    public ReliableChannel(RttEstimator rtt) {
+        this.rtt = rtt;
+
+        for(int i = 0; i < WINDOW; i++)
+            received[i] = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rtt;
+    }
+
+    /**
+     * Met un message en file d'envoi. Il partira avec le prochain
+     * datagramme (cf. write()).
+     *
+     * @param data Message encodé, de taille au plus MAX_MESSAGE_SIZE
+     *
+     * @return Le suivi de la livraison du message
+     *
+     * @throws IllegalArgumentException Si le message est trop grand
+     */
+    public synchronized Delivery send(byte[] data) {
+        if(data.length > MAX_MESSAGE_SIZE)
+            throw new IllegalArgumentException("Message trop grand : " + data.length + " octets");
+
+        Outgoing message = new Outgoing(data);
+
+        if(closed)
+            message.delivery.complete(false);
+        else {
+            backlog.add(message);
+            fillWindow();
+        }
+
+        return message.delivery;
+    }
+
+    /**
+     * Ecrit dans le datagramme l'acquittement et les messages à (r)envoyer,
+     * dans la limite de la place disponible
+     *
+     * @param out Datagramme en cours de construction
+     * @param protocol Protocole (binaire) utilisé pour l'encodage
+     * @param now Date courante (System.nanoTime())
+     */
+    public synchronized void write(ByteBuffer out, Protocol protocol, long now) {
+        if(ackPending && out.remaining() >= BinaryProtocol.ACK_SIZE) {
+            protocol.writeAck(out, SequenceNumbers.previous(expected), receivedBits());
+            ackPending = false;
+        }
+
+        boolean expired = false;
+
+        for(int seq = sendBase; seq != nextSeq; seq = SequenceNumbers.next(seq)) {
+            Outgoing message = window[seq % WINDOW];
+
+            if(message == null || now < message.due)
+                continue;
+
+            if(out.remaining() < BinaryProtocol.RELIABLE_HEADER_SIZE + message.data.length)
+                break;
+
+            if(message.sent) {
+                message.retransmitted = true;
+                expired = true;
+            }
+
+            message.sent = true;
+            message.sentAt = now;
+            message.due = now + rtt.getRto();
+
+            protocol.writeReliable(out, seq, message.data);
+        }
+
+        // un seul doublement du RTO par salve de renvois
+        if(expired)
+            rtt.backoff();
+    }
+
+    /**
+     * Rend dûs tous les messages non acquittés, ainsi que l'acquittement
+     * des messages reçus (reprise après une coupure)
+     */
+    public synchronized void resendNow() {
+        for(int seq = sendBase; seq != nextSeq; seq = SequenceNumbers.next(seq)) {
+            Outgoing message = window[seq % WINDOW];
+
+            if(message != null)
+                message.due = Long.MIN_VALUE;
+        }
+
+        ackPending = true;
+    }
+
+    /**
+     * Indique si write() a quelque chose à écrire
+     */
+    public synchronized boolean hasPendingOutput(long now) {
+        if(ackPending)
+            return true;
+
+        for(int seq = sendBase; seq != nextSeq; seq = SequenceNumbers.next(seq)) {
+            Outgoing message = window[seq % WINDOW];
+
+            if(message != null && now >= message.due)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true si des messages attendent encore leur acquittement
+     */
+    public synchronized boolean hasUnacknowledged() {
+        return sendBase != nextSeq || !backlog.isEmpty();
+    }
+
+    /**
+     * Prend en compte un acquittement reçu
+     *
+     * @param ack Dernier numéro reçu dans l'ordre par le destinataire
+     * @param bits Bit i : le message ack + 1 + i a été reçu
+     * @param now Date courante (System.nanoTime())
+     */
+    public synchronized void onAck(int ack, int bits, long now) {
+        for(int seq = sendBase; seq != nextSeq; seq = SequenceNumbers.next(seq)) {
+            int distance = SequenceNumbers.distance(seq, ack);
+
+            if(distance <= 0 || (distance <= WINDOW && (bits & (1 << (distance - 1))) != 0))
+                acknowledge(seq, now);
+        }
+
+        // la fenêtre avance jusqu'au premier message non acquitté
+        while(sendBase != nextSeq && window[sendBase % WINDOW] == null)
+            sendBase = SequenceNumbers.next(sendBase);
+
+        fillWindow();
+    }
+
+    private void acknowledge(int seq, long now) {
+        Outgoing message = window[seq % WINDOW];
+
+        if(message == null || !message.sent)
+            return;
+
+        if(!message.retransmitted)
+            rtt.addSample(now - message.sentAt);
+
+        window[seq % WINDOW] = null;
+        message.delivery.complete(true);
+    }
+
+    /**
+     * Numérote les messages en attente tant que la fenêtre le permet
+     */
+    private void fillWindow() {
+        while(!backlog.isEmpty() && SequenceNumbers.distance(nextSeq, sendBase) < WINDOW) {
+            Outgoing message = backlog.poll();
+
+            window[nextSeq % WINDOW] = message;
+            nextSeq = SequenceNumbers.next(nextSeq);
+        }
+    }
+
+    /**
+     * Prend en compte un message fiable reçu. Les messages prêts à être
+     * traités sont ensuite rendus par poll(), dans l'ordre.
+     *
+     * @param seq Numéro du message
+     * @param payload Contenu du message (copié)
+     */
+    public synchronized void receive(int seq, ByteBuffer payload) {
+        // même un doublon doit être acquitté : l'acquittement précédent
+        // s'est sans doute perdu
+        ackPending = true;
+
+        int distance = SequenceNumbers.distance(seq, expected);
+        if(distance < 0 || distance >= WINDOW || arrived[seq % WINDOW])
+            return;
+
+        ByteBuffer data = received[seq % WINDOW];
+        data.clear();
+        data.put(payload);
+        data.flip();
+
+        arrived[seq % WINDOW] = true;
+    }
+
+    /**
+     * @return Le prochain message reçu dans l'ordre, null s'il n'est pas
+     *         (encore) arrivé. Le buffer est réutilisé : il n'est valable
+     *         que jusqu'au prochain appel à receive().
+     */
+    public synchronized ByteBuffer poll() {
+        if(!arrived[expected % WINDOW])
+            return null;
+
+        ByteBuffer data = received[expected % WINDOW];
+
+        arrived[expected % WINDOW] = false;
+        expected = SequenceNumbers.next(expected);
+
+        return data;
+    }
+
+    /**
+     * Bit i : le message expected + i a été reçu (le bit 0 ne l'est jamais,
+     * sinon il aurait été traité)
+     */
+    private int receivedBits() {
+        int bits = 0;
+
+        for(int i = 0; i < WINDOW; i++) {
+            if(arrived[(expected + i) % WINDOW])
+                bits |= 1 << i;
+        }
+
+        return bits;
+    }
+
+    /**
+     * Abandonne tous les messages pas encore acquittés
+     */
+    public synchronized void close() {
+        closed = true;
+
+        for(int i = 0; i < WINDOW; i++) {
+            if(window[i] != null) {
+                window[i].delivery.complete(false);
+                window[i] = null;
+            }
+        }
+
+        while(!backlog.isEmpty())
+            backlog.poll().delivery.complete(false);
+
+        sendBase = nextSeq;
+    }
+}
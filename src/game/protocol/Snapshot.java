@@ -0,0 +1,238 @@
+/*
+ *  Snapshot.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import game.Constants.State;
+import game.objects.Ball;
+import game.objects.Player;
+import game.objects.Wall;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Etat complet d'une partie à un instant donné : balle, raquettes, état,
+ * scores et mur.
+ *
+ * Un instantané est transmis sous forme de différence avec un instantané
+ * que le destinataire connait déjà : un masque indique les champs qui ont
+ * changé, suivi pour chacun de l'écart avec l'ancienne valeur (entier
+ * signé de taille variable, cf. writeVarInt()). Un déplacement de la balle
+ * tient ainsi sur un octet par coordonnée.
+ */
+public final class Snapshot {
+    /**
+     * Champs de l'instantané, rangés par fréquence de changement : les sept
+     * premiers tiennent dans un masque d'un octet
+     */
+    public static final int BALL_X          = 0;
+    public static final int BALL_Y          = 1;
+    public static final int PLAYER1_Y       = 2;
+    public static final int PLAYER2_Y       = 3;
+    public static final int STATE           = 4;
+    public static final int SCORE1          = 5;
+    public static final int SCORE2          = 6;
+    public static final int WALL_X          = 7;
+    public static final int WALL_Y          = 8;
+    public static final int WALL_VISIBLE    = 9;
+
+    public static final int FIELD_COUNT     = 10;
+
+    /**
+     * Taille maximale d'un instantané encodé : masque puis écarts, chacun
+     * sur au plus 5 octets
+     */
+    public static final int MAX_SIZE        = 5 * (FIELD_COUNT + 1);
+
+    private static final State[] STATES = State.values();
+
+    private final int[] values = new int[FIELD_COUNT];
+
+
+    /**
+     * Instantané "vide" (tout à zéro, partie en attente), qui sert de
+     * référence aux instantanés complets
+     */
+    public Snapshot() {
+        reset();
+    }
+
+    public void reset() {
+        for(int i = 0; i < FIELD_COUNT; i++)
+            values[i] = 0;
+
+        values[STATE] = State.WAITING.ordinal();
+    }
+
+    /**
+     * Relève l'état de la partie
+     */
+    public void capture(Ball ball, Player player1, Player player2, Wall wall, State state) {
+        values[BALL_X] = ball.x;
+        values[BALL_Y] = ball.y;
+        values[PLAYER1_Y] = player1.y;
+        values[PLAYER2_Y] = player2.y;
+        values[STATE] = state.ordinal();
+        values[SCORE1] = player1.getScore();
+        values[SCORE2] = player2.getScore();
+        values[WALL_X] = wall.x;
+        values[WALL_Y] = wall.y;
+        values[WALL_VISIBLE] = wall.isVisible() ? 1 : 0;
+    }
+
+    public void copyFrom(Snapshot other) {
+        System.arraycopy(other.values, 0, values, 0, FIELD_COUNT);
+    }
+
+    public int get(int field) {
+        return values[field];
+    }
+
+    /**
+     * @return L'état de la partie, null si l'instantané reçu est incohérent
+     */
+    public State getState() {
+        int state = values[STATE];
+
+        return state >= 0 && state < STATES.length ? STATES[state] : null;
+    }
+
+    public boolean isWallVisible() {
+        return values[WALL_VISIBLE] != 0;
+    }
+
+    /**
+     * @return Masque des champs qui diffèrent entre les deux instantanés
+     */
+    public int diff(Snapshot base) {
+        int mask = 0;
+
+        for(int i = 0; i < FIELD_COUNT; i++) {
+            if(values[i] != base.values[i])
+                mask |= 1 << i;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Ecrit la différence avec l'instantané de référence
+     */
+    public void writeDelta(ByteBuffer out, Snapshot base) {
+        int mask = diff(base);
+
+        writeVarInt(out, mask);
+
+        for(int i = 0; i < FIELD_COUNT; i++) {
+            if((mask & (1 << i)) != 0)
+                writeVarInt(out, zigzag(values[i] - base.values[i]));
+        }
+    }
+
+    /**
+     * Lit une différence écrite par writeDelta() : l'instantané doit
+     * contenir la référence utilisée à l'écriture. Les données ont déjà
+     * été validées à leur réception (cf. skipDelta()).
+     */
+    public void readDelta(ByteBuffer in) {
+        int mask = readVarInt(in);
+
+        for(int i = 0; i < FIELD_COUNT; i++) {
+            if((mask & (1 << i)) != 0)
+                values[i] += unzigzag(readVarInt(in));
+        }
+    }
+
+    /**
+     * Avance jusqu'à la fin d'une différence sans la décoder
+     *
+     * @return false si les données sont tronquées ou incohérentes
+     */
+    static boolean skipDelta(ByteBuffer in) {
+        int mask = readVarInt(in);
+
+        if(mask < 0 || mask >= 1 << FIELD_COUNT)
+            return false;
+
+        for(int i = Integer.bitCount(mask); i > 0; i--) {
+            if(!skipVarInt(in))
+                return false;
+        }
+
+        return true;
+    }
+
+    /*
+     * Entiers de taille variable : 7 bits par octet, le bit de poids fort
+     * indique qu'un octet suit. Les entiers signés passent par zigzag()
+     * pour que les petits écarts négatifs restent petits.
+     */
+
+    static void writeVarInt(ByteBuffer out, int value) {
+        while((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.put((byte) value);
+    }
+
+    /**
+     * @return La valeur lue, -1 si les données sont tronquées
+     */
+    static int readVarInt(ByteBuffer in) {
+        int value = 0;
+
+        for(int shift = 0; shift < 35; shift += 7) {
+            if(!in.hasRemaining())
+                return -1;
+
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+
+            if((b & 0x80) == 0)
+                return value;
+        }
+
+        return -1;
+    }
+
+    private static boolean skipVarInt(ByteBuffer in) {
+        for(int i = 0; i < 5; i++) {
+            if(!in.hasRemaining())
+                return false;
+
+            if((in.get() & 0x80) == 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  SnapshotHistory.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+
+/**
+ * Derniers instantanés envoyés ou reçus, rangés selon leur numéro dans un
+ * tampon circulaire
+ */
+final class SnapshotHistory {
+    /**
+     * Nombre d'instantanés conservés : c'est aussi l'écart maximal entre un
+     * instantané et sa référence (la taille doit diviser 65536 pour que le
+     * rangement survive au retour à 0 des numéros)
+     */
+    static final int SIZE = 32;
+
+    private final Snapshot[] snapshots = new Snapshot[SIZE];
+    private final int[] sequences = new int[SIZE];
+
+
+    SnapshotHistory() {
+        for(int i = 0; i < SIZE; i++) {
+            snapshots[i] = new Snapshot();
+            sequences[i] = -1;
+        }
+    }
+
+    /**
+     * @return L'instantané de ce numéro, null s'il n'est plus (ou pas)
+     *         conservé
+     */
+    Snapshot get(int sequence) {
+        int i = sequence % SIZE;
+
+        return sequences[i] == sequence ? snapshots[i] : null;
+    }
+
+    /**
+     * @return L'emplacement où ranger l'instantané de ce numéro (il
+     *         remplace celui du numéro sequence - SIZE)
+     */
+    Snapshot store(int sequence) {
+        int i = sequence % SIZE;
+        sequences[i] = sequence;
+
+        return snapshots[i];
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  SnapshotReceiver.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import java.nio.ByteBuffer;
+
+import network.SequenceNumbers;
+
+
+/**
+ * Côté client : reconstitue les instantanés reçus à partir de leur
+ * référence, et retient le dernier numéro à acquitter au serveur.
+ *
+ * Les instantanés plus anciens que le dernier reçu sont ignorés, de même
+ * que ceux dont la référence n'est plus connue : le serveur continuera
+ * d'envoyer l'état courant tant qu'il n'en aura pas reçu l'acquittement.
+ */
+public final class SnapshotReceiver {
+    private final SnapshotHistory history = new SnapshotHistory();
+    private final Snapshot empty = new Snapshot();
+
+    private int lastSequence = 0;
+    private boolean received = false;
+    private boolean ackPending = false;
+
+
+    /**
+     * Reconstitue un instantané reçu
+     *
+     * @param sequence Numéro de l'instantané
+     * @param baseline Numéro de sa référence, -1 pour un instantané complet
+     * @param delta Différence avec la référence
+     *
+     * @return L'instantané (valable jusqu'à la réception de SIZE suivants),
+     *         null s'il est périmé ou si sa référence est inconnue
+     */
+    public Snapshot receive(int sequence, int baseline, ByteBuffer delta) {
+        if(received && !SequenceNumbers.isNewer(sequence, lastSequence)) {
+            // le dernier acquittement s'est peut-être perdu
+            ackPending = true;
+            return null;
+        }
+
+        Snapshot base = empty;
+        if(baseline >= 0) {
+            if(SequenceNumbers.distance(sequence, baseline) >= SnapshotHistory.SIZE)
+                return null;
+
+            base = history.get(baseline);
+            if(base == null)
+                return null;
+        }
+
+        Snapshot snapshot = history.store(sequence);
+        snapshot.copyFrom(base);
+        snapshot.readDelta(delta);
+
+        lastSequence = sequence;
+        received = true;
+        ackPending = true;
+
+        return snapshot;
+    }
+
+    /**
+     * @return Le numéro du dernier instantané reçu s'il doit être acquitté,
+     *         -1 sinon
+     */
+    public int takeAck() {
+        if(!ackPending)
+            return -1;
+
+        ackPending = false;
+
+        return lastSequence;
+    }
+}
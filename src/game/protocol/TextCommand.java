@@ -0,0 +1,42 @@
+/*
+ *  TextCommand.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+
+/**
+ * Décodeur d'une instruction du protocole texte. Chaque instruction est
+ * enregistrée auprès du protocole sous son mot-clé (cf.
+ * TextProtocol.register()).
+ */
+public interface TextCommand {
+    /**
+     * Lit les arguments de l'instruction et transmet le message décodé
+     *
+     * @param args Arguments de l'instruction (le mot-clé est déjà lu)
+     * @param listener Destinataire du message
+     *
+     * @throws IllegalArgumentException Si un argument est mal formé :
+     *                                  l'instruction est alors ignorée
+     */
+    void read(TextTokens args, MessageListener listener);
+}
@@ -0,0 +1,350 @@
+/*
+ *  TextProtocol.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import game.Constants;
+import game.Constants.State;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * Le protocole historique : une instruction par datagramme, sous la forme
+ * de mots séparés par des espaces (ex : "ball 320 240").
+ *
+ * Il n'est plus utilisé qu'avec les clients qui ne proposent pas le
+ * protocole binaire lors de la poignée de main.
+ */
+public final class TextProtocol implements Protocol {
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private static final State[] STATES = State.values();
+
+    /**
+     * Taille de la table des instructions (une puissance de 2, largement
+     * plus grande que le nombre d'instructions)
+     */
+    private static final int TABLE_SIZE = 32;
+
+    /**
+     * Instructions connues, rangées selon l'empreinte de leur mot-clé
+     * (adressage ouvert)
+     */
+    private final String[] keywords = new String[TABLE_SIZE];
+    private final int[] hashes = new int[TABLE_SIZE];
+    private final int[] arities = new int[TABLE_SIZE];
+    private final TextCommand[] commands = new TextCommand[TABLE_SIZE];
+
+    private final TextTokens tokens = new TextTokens();
+
+
+    public TextProtocol() {
+        register(Constants.MSG_MOVE, 2, MOVE);
+        register(Constants.MSG_BALL, 2, BALL);
+        register(Constants.MSG_SCORE, 2, SCORE);
+        register(Constants.MSG_CONTACT, 0, CONTACT);
+        register(Constants.MSG_WALL_TOUCHED, 0, WALL_TOUCHED);
+        register(Constants.MSG_STATE_CHANGED, 1, STATE_CHANGED);
+        register(Constants.MSG_WALL_POS, 3, WALL_POS);
+        register(Constants.MSG_DISCONNECT, 0, DISCONNECT);
+    }
+
+    @Override
+    public void writeMove(ByteBuffer out, int player, int y) {
+        put(out, String.format("%s P%d %d", Constants.MSG_MOVE, player, y));
+    }
+
+    @Override
+    public void writeBall(ByteBuffer out, int x, int y) {
+        put(out, String.format("%s %d %d", Constants.MSG_BALL, x, y));
+    }
+
+    @Override
+    public void writeScore(ByteBuffer out, int player, int score) {
+        put(out, String.format("%s P%d %d", Constants.MSG_SCORE, player, score));
+    }
+
+    @Override
+    public void writeContact(ByteBuffer out) {
+        put(out, Constants.MSG_CONTACT);
+    }
+
+    @Override
+    public void writeWallTouched(ByteBuffer out) {
+        put(out, Constants.MSG_WALL_TOUCHED);
+    }
+
+    @Override
+    public void writeState(ByteBuffer out, State state) {
+        put(out, String.format("%s %s", Constants.MSG_STATE_CHANGED, state));
+    }
+
+    @Override
+    public void writeWallPos(ByteBuffer out, int x, int y, boolean visible) {
+        put(out, String.format("%s %d %d %s", Constants.MSG_WALL_POS, x, y,
+                                              visible ? "on" : "off"));
+    }
+
+    /**
+     * Le protocole texte ne connait pas les mouvements numérotés : le
+     * mouvement est envoyé comme un mouvement simple
+     */
+    @Override
+    public void writeInput(ByteBuffer out, int player, int sequence, int y) {
+        writeMove(out, player, y);
+    }
+
+    /**
+     * Pas de confirmation en mode texte : rien n'est écrit
+     */
+    @Override
+    public void writeInputAck(ByteBuffer out, int player, int sequence, int y) {
+    }
+
+    /**
+     * Un datagramme ne contient qu'un message en mode texte
+     */
+    @Override
+    public boolean supportsBatching() {
+        return false;
+    }
+
+    /**
+     * Pas de canal fiable en mode texte
+     */
+    @Override
+    public boolean supportsReliable() {
+        return false;
+    }
+
+    @Override
+    public void writeReliable(ByteBuffer out, int sequence, byte[] message) {
+        throw new UnsupportedOperationException("Pas de canal fiable en mode texte");
+    }
+
+    @Override
+    public void writeAck(ByteBuffer out, int ack, int bits) {
+        throw new UnsupportedOperationException("Pas de canal fiable en mode texte");
+    }
+
+    /**
+     * Pas d'instantanés en mode texte : l'état de la partie y est transmis
+     * message par message
+     */
+    @Override
+    public boolean supportsSnapshots() {
+        return false;
+    }
+
+    @Override
+    public void writeSnapshot(ByteBuffer out, int sequence, int baseline,
+                              Snapshot snapshot, Snapshot base) {
+        throw new UnsupportedOperationException("Pas d'instantanés en mode texte");
+    }
+
+    @Override
+    public void writeSnapshotAck(ByteBuffer out, int sequence) {
+        throw new UnsupportedOperationException("Pas d'instantanés en mode texte");
+    }
+
+    /**
+     * Un datagramme texte ne contient qu'un message, sans entête
+     */
+    @Override
+    public boolean supportsFrameHeader() {
+        return false;
+    }
+
+    @Override
+    public void writeFrameHeader(ByteBuffer out, int sequence, long tick) {
+        throw new UnsupportedOperationException("Pas d'entête de datagramme en mode texte");
+    }
+
+    /**
+     * Pas de mesure du lien en mode texte : seule la poignée de main donne
+     * une idée du temps d'aller-retour
+     */
+    @Override
+    public boolean supportsPing() {
+        return false;
+    }
+
+    @Override
+    public void writePing(ByteBuffer out, int time) {
+        throw new UnsupportedOperationException("Pas de mesure du lien en mode texte");
+    }
+
+    @Override
+    public void writePong(ByteBuffer out, int echo, int hold, int loss) {
+        throw new UnsupportedOperationException("Pas de mesure du lien en mode texte");
+    }
+
+    /**
+     * Ignoré par les anciens clients, qui ne connaissent pas ce message
+     */
+    @Override
+    public void writeDisconnect(ByteBuffer out) {
+        put(out, Constants.MSG_DISCONNECT);
+    }
+
+    /**
+     * Pas de reprise de partie en mode texte : l'adresse du client est
+     * celle de sa poignée de main
+     */
+    @Override
+    public boolean supportsSession() {
+        return false;
+    }
+
+    @Override
+    public void writeSession(ByteBuffer out, long token) {
+        throw new UnsupportedOperationException("Pas de jeton de session en mode texte");
+    }
+
+    @Override
+    public void writeResume(ByteBuffer out, long token) {
+        throw new UnsupportedOperationException("Pas de jeton de session en mode texte");
+    }
+
+    private static void put(ByteBuffer out, String msg) {
+        out.put(msg.getBytes(CHARSET));
+    }
+
+    /**
+     * Enregistre une instruction : un message reçu dont le premier mot est
+     * keyword, suivi de exactement arity arguments, sera décodé par command
+     * (qui remplace celle déjà enregistrée sous ce mot-clé, s'il y en a une)
+     *
+     * @throws IllegalStateException Si la table des instructions est pleine
+     */
+    public void register(String keyword, int arity, TextCommand command) {
+        int hash = keyword.hashCode();
+        int i = hash & (TABLE_SIZE - 1);
+
+        for(int n = 0; keywords[i] != null && !keywords[i].equals(keyword); n++) {
+            if(n == TABLE_SIZE)
+                throw new IllegalStateException("Trop d'instructions enregistrées");
+
+            i = (i + 1) & (TABLE_SIZE - 1);
+        }
+
+        keywords[i] = keyword;
+        hashes[i] = hash;
+        arities[i] = arity;
+        commands[i] = command;
+    }
+
+    /**
+     * Décode l'instruction avec celle enregistrée sous son mot-clé. Une
+     * instruction inconnue, mal formée ou qui n'a pas le bon nombre
+     * d'arguments est ignorée.
+     *
+     * @note N'alloue rien, mais n'est pas réentrante : le curseur sur les
+     *       mots est réutilisé d'un message à l'autre
+     */
+    @Override
+    public void read(ByteBuffer in, MessageListener listener) {
+        tokens.reset(in);
+        in.position(in.limit());
+
+        try {
+            int hash = tokens.nextHash();
+
+            for(int i = hash & (TABLE_SIZE - 1); keywords[i] != null; i = (i + 1) & (TABLE_SIZE - 1)) {
+                if(hashes[i] != hash || !tokens.lastIs(keywords[i]))
+                    continue;
+
+                if(tokens.count() - 1 == arities[i])
+                    commands[i].read(tokens, listener);
+
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // instruction mal formée (NumberFormatException comprise) : ignorée
+        }
+    }
+
+    /**
+     * Les joueurs sont désignés par "P1" et "P2" dans le protocole texte
+     */
+    private static int playerId(TextTokens args) {
+        return args.nextIs("P1") ? 1 : 2;
+    }
+
+    private static final TextCommand MOVE = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onMoveMessage(playerId(args), args.nextInt());
+        }
+    };
+
+    private static final TextCommand BALL = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onBallMessage(args.nextInt(), args.nextInt());
+        }
+    };
+
+    private static final TextCommand SCORE = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onScoreMessage(playerId(args), args.nextInt());
+        }
+    };
+
+    private static final TextCommand CONTACT = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onContactMessage();
+        }
+    };
+
+    private static final TextCommand WALL_TOUCHED = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onWallTouchedMessage();
+        }
+    };
+
+    private static final TextCommand STATE_CHANGED = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onStateMessage(args.nextEnum(STATES));
+        }
+    };
+
+    private static final TextCommand WALL_POS = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onWallPosMessage(args.nextInt(), args.nextInt(),
+                                      args.nextIs("on"));
+        }
+    };
+
+    private static final TextCommand DISCONNECT = new TextCommand() {
+        @Override
+        public void read(TextTokens args, MessageListener listener) {
+            listener.onDisconnectMessage();
+        }
+    };
+}
@@ -0,0 +1,200 @@
+/*
+ *  TextTokens.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.protocol;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Curseur sur les mots d'une instruction texte, séparés par des espaces.
+ *
+ * Les mots sont lus directement dans le tableau du datagramme : ni chaîne
+ * ni tableau n'est créé pour les découper ou les convertir (sauf pour
+ * signaler une instruction mal formée). Un buffer direct est d'abord copié
+ * dans un tableau réutilisé d'un message à l'autre.
+ */
+public final class TextTokens {
+    private static final byte SPACE = ' ';
+
+    private byte[] data;
+    private byte[] copy = new byte[64];
+    private int position;
+    private int limit;
+    private int count;
+
+    /**
+     * Début du dernier mot lu (il s'arrête à position)
+     */
+    private int start;
+
+
+    /**
+     * Place le curseur au début d'une instruction
+     *
+     * @param in Instruction, entre sa position et sa limite (qui ne sont
+     *           pas modifiées)
+     */
+    void reset(ByteBuffer in) {
+        if(in.hasArray()) {
+            data = in.array();
+            position = in.arrayOffset() + in.position();
+            limit = in.arrayOffset() + in.limit();
+        } else {
+            if(copy.length < in.remaining())
+                copy = new byte[in.remaining()];
+
+            data = copy;
+            position = 0;
+            limit = in.remaining();
+
+            for(int i = 0; i < limit; i++)
+                copy[i] = in.get(in.position() + i);
+        }
+
+        start = position;
+        count = 0;
+
+        boolean inWord = false;
+        for(int i = position; i < limit; i++) {
+            boolean space = data[i] == SPACE;
+
+            if(!space && !inWord)
+                count++;
+
+            inWord = !space;
+        }
+    }
+
+    /**
+     * @return Nombre de mots de l'instruction, mot-clé compris
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Lit un entier en décimal, éventuellement négatif
+     *
+     * @throws NumberFormatException Si le mot n'est pas un entier
+     * @throws IllegalArgumentException S'il n'y a plus de mot
+     */
+    public int nextInt() {
+        next();
+
+        int i = start;
+        boolean negative = data[i] == '-';
+        if(negative)
+            i++;
+
+        if(i == position)
+            throw new NumberFormatException("Entier attendu");
+
+        int value = 0;
+        for(; i < position; i++) {
+            int digit = data[i] - '0';
+
+            if(digit < 0 || digit > 9)
+                throw new NumberFormatException("Entier attendu");
+
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Lit un mot et le compare à celui attendu
+     *
+     * @throws IllegalArgumentException S'il n'y a plus de mot
+     */
+    public boolean nextIs(String word) {
+        next();
+
+        return lastIs(word);
+    }
+
+    /**
+     * Lit le nom d'une constante d'énumération
+     *
+     * @param values Constantes possibles (cf. E.values(), à garder pour
+     *               ne pas recréer le tableau à chaque instruction)
+     *
+     * @throws IllegalArgumentException Si le mot n'est le nom d'aucune
+     *                                  d'elles
+     */
+    public <E extends Enum<E>> E nextEnum(E[] values) {
+        next();
+
+        for(E value : values) {
+            if(lastIs(value.name()))
+                return value;
+        }
+
+        throw new IllegalArgumentException("Constante inconnue");
+    }
+
+    /**
+     * Lit un mot et calcule son empreinte, identique à celle de la chaîne
+     * correspondante (cf. String.hashCode())
+     */
+    int nextHash() {
+        next();
+
+        int hash = 0;
+        for(int i = start; i < position; i++)
+            hash = 31 * hash + (data[i] & 0xFF);
+
+        return hash;
+    }
+
+    /**
+     * Compare le dernier mot lu à celui attendu
+     */
+    boolean lastIs(String word) {
+        if(word.length() != position - start)
+            return false;
+
+        for(int i = 0; i < word.length(); i++) {
+            if(data[start + i] != word.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Passe au mot suivant
+     */
+    private void next() {
+        while(position < limit && data[position] == SPACE)
+            position++;
+
+        if(position == limit)
+            throw new IllegalArgumentException("Argument manquant");
+
+        start = position;
+
+        while(position < limit && data[position] != SPACE)
+            position++;
+    }
+}
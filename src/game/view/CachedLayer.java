@@ -0,0 +1,104 @@
+/*
+ *  CachedLayer.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+
+/**
+ * Couche de dessin statique, dessinée une fois dans une image compatible
+ * avec l'écran puis simplement recopiée à chaque image.
+ *
+ * Une couche peut avoir plusieurs variantes (par exemple selon la couleur
+ * des lignes) : chacune est dessinée à sa première utilisation, et toutes
+ * sont redessinées si la taille ou l'écran changent.
+ */
+public abstract class CachedLayer {
+    private final BufferedImage[] images;
+
+    private GraphicsConfiguration config;
+    private int width, height;
+
+
+    /**
+     * @param variants Nombre de variantes de la couche (numérotées à partir
+     *                 de 0)
+     */
+    public CachedLayer(int variants) {
+        images = new BufferedImage[variants];
+    }
+
+    /**
+     * Retourne l'image d'une variante de la couche, dessinée si besoin
+     *
+     * @param gc Configuration de l'écran sur lequel on affiche
+     * @param width Largeur de la couche
+     * @param height Hauteur de la couche
+     * @param variant Numéro de la variante
+     *
+     * @return L'image de la couche
+     */
+    public BufferedImage get(GraphicsConfiguration gc, int width, int height, int variant) {
+        if(gc != config || width != this.width || height != this.height) {
+            invalidate();
+
+            config = gc;
+            this.width = width;
+            this.height = height;
+        }
+
+        if(images[variant] == null) {
+            BufferedImage image = gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+            Graphics2D g = image.createGraphics();
+
+            try {
+                paint(g, variant);
+            } finally {
+                g.dispose();
+            }
+
+            images[variant] = image;
+        }
+
+        return images[variant];
+    }
+
+    /**
+     * Oublie toutes les variantes déjà dessinées
+     */
+    public void invalidate() {
+        Arrays.fill(images, null);
+    }
+
+    /**
+     * Dessine une variante de la couche
+     *
+     * @param g Element dans lequel on dessine (l'image de la variante)
+     * @param variant Numéro de la variante
+     */
+    protected abstract void paint(Graphics2D g, int variant);
+}
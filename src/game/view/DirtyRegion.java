@@ -0,0 +1,159 @@
+/*
+ *  DirtyRegion.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import java.awt.Rectangle;
+
+
+/**
+ * Zones de l'écran à redessiner pour une image.
+ *
+ * Les zones qui se touchent sont fusionnées, et leur nombre est borné : au
+ * delà, les dernières sont réunies. Une région peut aussi couvrir tout
+ * l'écran, auquel cas les zones sont ignorées.
+ */
+public final class DirtyRegion {
+    public static final int MAX_RECTS = 8;
+
+    private final Rectangle[] rects = new Rectangle[MAX_RECTS];
+    private int count = 0;
+    private boolean full = false;
+
+    private final Rectangle pending = new Rectangle();
+
+
+    public DirtyRegion() {
+        for(int i = 0; i < rects.length; i++)
+            rects[i] = new Rectangle();
+    }
+
+    /**
+     * Ajoute une zone à redessiner
+     *
+     * @param r Zone à ajouter (elle n'est pas conservée)
+     */
+    public void add(Rectangle r) {
+        add(r.x, r.y, r.width, r.height);
+    }
+
+    /**
+     * Ajoute une zone à redessiner
+     */
+    public void add(int x, int y, int width, int height) {
+        if(full || width <= 0 || height <= 0)
+            return;
+
+        Rectangle r = pending;
+        r.setBounds(x, y, width, height);
+
+        // une zone agrandie par une fusion peut en toucher d'autres
+        boolean merged = true;
+        while(merged) {
+            merged = false;
+
+            for(int i = 0; i < count; i++) {
+                if(touches(rects[i], r)) {
+                    r.add(rects[i]);
+                    removeAt(i);
+                    merged = true;
+                    break;
+                }
+            }
+
+            if(!merged && count == rects.length) {
+                r.add(rects[count - 1]);
+                count--;
+                merged = true;
+            }
+        }
+
+        rects[count++].setBounds(r);
+    }
+
+    /**
+     * Ajoute les zones d'une autre région
+     */
+    public void add(DirtyRegion other) {
+        if(other.full) {
+            setFull();
+            return;
+        }
+
+        for(int i = 0; i < other.count; i++)
+            add(other.rects[i]);
+    }
+
+    /**
+     * Marque tout l'écran comme à redessiner
+     */
+    public void setFull() {
+        full = true;
+        count = 0;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public boolean isEmpty() {
+        return !full && count == 0;
+    }
+
+    /**
+     * @return Nombre de zones (0 si la région couvre tout l'écran)
+     */
+    public int size() {
+        return count;
+    }
+
+    public Rectangle get(int i) {
+        return rects[i];
+    }
+
+    /**
+     * Vide la région
+     */
+    public void clear() {
+        full = false;
+        count = 0;
+    }
+
+    /**
+     * Retire une zone en la remplaçant par la dernière (les rectangles
+     * sont réutilisés, pas recréés)
+     */
+    private void removeAt(int i) {
+        Rectangle removed = rects[i];
+        rects[i] = rects[count - 1];
+        rects[count - 1] = removed;
+        count--;
+    }
+
+    /**
+     * Indique si deux zones se chevauchent ou sont collées
+     */
+    private static boolean touches(Rectangle a, Rectangle b) {
+        return a.x <= b.x + b.width && b.x <= a.x + a.width
+            && a.y <= b.y + b.height && b.y <= a.y + a.height;
+    }
+}
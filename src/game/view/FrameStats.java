@@ -0,0 +1,109 @@
+/*
+ *  FrameStats.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+
+/**
+ * Mesure du temps de dessin des images et de leur fréquence réelle.
+ *
+ * Les moyennes sont glissantes (poids 1/16 pour la dernière image), le
+ * maximum porte sur la dernière seconde écoulée.
+ */
+public final class FrameStats {
+    private static final long WINDOW = 1000000000L;
+
+    private long frames = 0;
+
+    private long avgFrameTime = 0;
+    private long avgInterval = 0;
+
+    private long maxFrameTime = 0;
+    private long windowMax = 0;
+    private long windowStart;
+
+    private long lastStart;
+
+
+    /**
+     * Enregistre une image
+     *
+     * @param start Début du dessin (cf. System.nanoTime())
+     * @param end Fin du dessin, affichage compris
+     */
+    public synchronized void add(long start, long end) {
+        long frameTime = end - start;
+
+        if(frames == 0) {
+            avgFrameTime = frameTime;
+            windowStart = start;
+        } else {
+            avgFrameTime += (frameTime - avgFrameTime) / 16;
+
+            long interval = start - lastStart;
+            avgInterval = frames == 1 ? interval : avgInterval + (interval - avgInterval) / 16;
+        }
+
+        if(start - windowStart >= WINDOW) {
+            maxFrameTime = windowMax;
+            windowMax = 0;
+            windowStart = start;
+        }
+
+        windowMax = Math.max(windowMax, frameTime);
+        lastStart = start;
+        frames++;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return Temps moyen de dessin d'une image, en nanosecondes
+     */
+    public synchronized long getAverageFrameTime() {
+        return avgFrameTime;
+    }
+
+    /**
+     * @return Plus long dessin d'une image sur la dernière seconde, en
+     *         nanosecondes
+     */
+    public synchronized long getMaxFrameTime() {
+        return Math.max(maxFrameTime, windowMax);
+    }
+
+    /**
+     * @return Nombre d'images affichées par seconde, 0 tant qu'il n'y en a
+     *         pas eu deux
+     */
+    public synchronized double getFps() {
+        return avgInterval > 0 ? 1e9 / avgInterval : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%.0f i/s, image %.1f ms (max %.1f ms)", getFps(),
+                             avgFrameTime / 1e6, getMaxFrameTime() / 1e6);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  RenderLoop.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import game.TickScheduler;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.Graphics;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+
+
+/**
+ * Affichage actif : un thread dédié dessine la scène dans le tampon
+ * arrière d'un Canvas puis l'affiche (échange de pages quand c'est
+ * possible), à fréquence fixe.
+ *
+ * L'affichage ne dépend ni du thread de l'interface ni des appels à
+ * repaint() : une image en retard est abandonnée, pas rattrapée.
+ *
+ * La scène apprend ce que contient encore le tampon où elle dessine
+ * (cf. Scene.render()), pour ne redessiner que ce qui a changé.
+ */
+public final class RenderLoop implements Runnable {
+    private final Canvas canvas;
+    private final Scene scene;
+    private final int fps;
+
+    private final FrameStats stats = new FrameStats();
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+
+    /**
+     * @param canvas Surface d'affichage (déjà affichée)
+     * @param scene Ce qu'il faut dessiner
+     * @param fps Nombre d'images par seconde visé
+     *
+     * @throws IllegalArgumentException Si la fréquence est inférieure ou
+     *                                  égale à 0
+     */
+    public RenderLoop(Canvas canvas, Scene scene, int fps) {
+        if(fps <= 0)
+            throw new IllegalArgumentException("Fréquence d'affichage incorrecte");
+
+        this.canvas = canvas;
+        this.scene = scene;
+        this.fps = fps;
+    }
+
+    /**
+     * Crée les tampons du Canvas et lance le thread d'affichage
+     *
+     * @throws IllegalStateException Si le Canvas n'est pas affiché
+     */
+    public synchronized void start() {
+        if(running)
+            return;
+
+        canvas.setIgnoreRepaint(true);
+        canvas.createBufferStrategy(2);
+
+        running = true;
+        thread = new Thread(this, "Affichage");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Arrête le thread d'affichage (après l'image en cours)
+     */
+    public synchronized void stop() {
+        running = false;
+    }
+
+    public FrameStats getStats() {
+        return stats;
+    }
+
+    public int getTargetFps() {
+        return fps;
+    }
+
+    @Override
+    public void run() {
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        int age = bufferAge(strategy.getCapabilities());
+        boolean first = true;
+
+        // pas de rattrapage : une image en retard est perdue
+        TickScheduler scheduler = new TickScheduler(fps, 1);
+
+        while(running) {
+            scheduler.awaitTicks();
+
+            long start = System.nanoTime();
+
+            renderFrame(strategy, first ? 0 : age);
+            first = false;
+
+            // les commandes de dessin en attente partent tout de suite
+            Toolkit.getDefaultToolkit().sync();
+
+            stats.add(start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Dessine et affiche une image. Si le contenu des tampons est perdu
+     * en cours de route (changement de mode, fenêtre masquée), l'image est
+     * entièrement redessinée.
+     */
+    private void renderFrame(BufferStrategy strategy, int age) {
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+
+                try {
+                    scene.render(g, age);
+                } finally {
+                    g.dispose();
+                }
+
+                age = 0;
+            } while(strategy.contentsRestored());
+
+            strategy.show();
+        } while(strategy.contentsLost());
+    }
+
+    /**
+     * Age du contenu du tampon arrière au début d'une image : sans échange
+     * de pages, il est recopié à l'écran et garde l'image précédente ; avec
+     * échange, cela dépend de ce que devient l'ancienne page affichée.
+     *
+     * @return 1 ou 2, ou 0 si le contenu n'est pas connu
+     */
+    private static int bufferAge(BufferCapabilities caps) {
+        if(!caps.isPageFlipping())
+            return 1;
+
+        BufferCapabilities.FlipContents contents = caps.getFlipContents();
+
+        if(contents == BufferCapabilities.FlipContents.COPIED)
+            return 1;
+        if(contents == BufferCapabilities.FlipContents.PRIOR)
+            return 2;
+
+        return 0;
+    }
+}
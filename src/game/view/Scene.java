@@ -0,0 +1,42 @@
+/*
+ *  Scene.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import java.awt.Graphics;
+
+
+/**
+ * Ce que dessine une boucle d'affichage (cf. RenderLoop)
+ */
+public interface Scene {
+    /**
+     * Dessine l'image suivante
+     *
+     * @param g Element dans lequel on dessine (le tampon de l'image
+     *          suivante)
+     * @param bufferAge Nombre d'images depuis celle que contient encore le
+     *                  tampon (1 : la précédente), 0 si son contenu est
+     *                  inconnu et qu'il faut tout redessiner
+     */
+    void render(Graphics g, int bufferAge);
+}
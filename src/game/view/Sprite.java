@@ -0,0 +1,152 @@
+/*
+ *  Sprite.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import game.objects.GameObject;
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+
+/**
+ * Image représentant un objet du terrain.
+ *
+ * L'image lue sur le disque est dans un format quelconque (souvent
+ * TYPE_4BYTE_ABGR pour un PNG), dont la copie se fait pixel par pixel. Elle
+ * est convertie au format de l'écran : Java2D peut alors en garder une copie
+ * en mémoire vidéo, qu'il restaure lui-même si elle est perdue.
+ */
+public class Sprite {
+    private final BufferedImage img;
+
+
+    /**
+     * @param img Chemin de l'image, gardée dans son format d'origine
+     */
+    public Sprite(String img) throws IOException {
+        this(img, null);
+    }
+
+    /**
+     * @param img Chemin de l'image
+     * @param gc Configuration de l'écran sur lequel l'image sera affichée
+     *           (null pour garder le format d'origine)
+     */
+    public Sprite(String img, GraphicsConfiguration gc) throws IOException {
+        BufferedImage read = ImageIO.read(new File(img));
+
+        this.img = gc == null ? read : toCompatible(read, gc);
+    }
+
+    /**
+     * Dessine l'image à la position de l'objet
+     *
+     * @param g Element dans lequel on dessine
+     * @param obj Objet représenté
+     */
+    public void drawOn(Graphics g, GameObject obj) {
+        g.drawImage(img, obj.getLeft(), obj.getTop(), null);
+    }
+
+    /**
+     * Dessine l'image à une position donnée
+     *
+     * @param g Element dans lequel on dessine
+     * @param x Abscisse du coin supérieur gauche
+     * @param y Ordonnée du coin supérieur gauche
+     */
+    public void drawAt(Graphics g, int x, int y) {
+        g.drawImage(img, x, y, null);
+    }
+
+    public int getWidth() {
+        return img.getWidth();
+    }
+
+    public int getHeight() {
+        return img.getHeight();
+    }
+
+    /**
+     * Convertit une image au format de l'écran, avec la transparence la
+     * plus simple qui convient à ses pixels
+     *
+     * @param src Image à convertir
+     * @param gc Configuration de l'écran
+     *
+     * @return L'image convertie (src si elle est déjà au bon format)
+     */
+    public static BufferedImage toCompatible(BufferedImage src, GraphicsConfiguration gc) {
+        int transparency = transparencyOf(src);
+
+        if(src.getColorModel().equals(gc.getColorModel(transparency)))
+            return src;
+
+        BufferedImage dst = gc.createCompatibleImage(src.getWidth(), src.getHeight(), transparency);
+        Graphics2D g = dst.createGraphics();
+
+        try {
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(src, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+
+        return dst;
+    }
+
+    /**
+     * Transparence réellement utilisée par les pixels d'une image : une
+     * image sans pixel semi-transparent peut être copiée en BITMASK, bien
+     * plus vite qu'en TRANSLUCENT
+     *
+     * @return Transparency.OPAQUE, BITMASK ou TRANSLUCENT
+     */
+    public static int transparencyOf(BufferedImage img) {
+        if(img.getTransparency() == Transparency.OPAQUE)
+            return Transparency.OPAQUE;
+
+        boolean opaque = true;
+
+        for(int y = 0; y < img.getHeight(); y++) {
+            for(int x = 0; x < img.getWidth(); x++) {
+                int alpha = img.getRGB(x, y) >>> 24;
+
+                if(alpha == 0xFF)
+                    continue;
+                if(alpha != 0)
+                    return Transparency.TRANSLUCENT;
+
+                opaque = false;
+            }
+        }
+
+        return opaque ? Transparency.OPAQUE : Transparency.BITMASK;
+    }
+}
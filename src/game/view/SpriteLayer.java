@@ -0,0 +1,123 @@
+/*
+ *  SpriteLayer.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import game.objects.GameObject;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+
+/**
+ * Ensemble d'objets du terrain dessinés par leur Sprite, qui retient où
+ * chacun a été dessiné pour ne signaler que les zones qui ont changé.
+ *
+ * Les positions sont relevées une fois par image (cf. update()) : les
+ * objets sont ensuite dessinés à ces positions, même si le jeu les déplace
+ * entre temps, pour que le dessin corresponde aux zones signalées.
+ */
+public final class SpriteLayer {
+    private final Sprite[] sprites;
+    private final GameObject[] objects;
+
+    /**
+     * Zone de chaque objet lors du dernier relevé, et vrai s'il était
+     * affiché
+     */
+    private final Rectangle[] drawn;
+    private final boolean[] shown;
+
+    private int count = 0;
+    private boolean visible = true;
+
+    private final Rectangle bounds = new Rectangle();
+
+
+    /**
+     * @param capacity Nombre maximal d'objets
+     */
+    public SpriteLayer(int capacity) {
+        sprites = new Sprite[capacity];
+        objects = new GameObject[capacity];
+        drawn = new Rectangle[capacity];
+        shown = new boolean[capacity];
+    }
+
+    /**
+     * Ajoute un objet à la couche (les objets sont dessinés dans l'ordre
+     * d'ajout)
+     *
+     * @param sprite Image de l'objet
+     * @param obj Objet représenté
+     */
+    public void add(Sprite sprite, GameObject obj) {
+        sprites[count] = sprite;
+        objects[count] = obj;
+        drawn[count] = new Rectangle();
+        count++;
+    }
+
+    /**
+     * Affiche ou cache tous les objets de la couche
+     */
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+    }
+
+    /**
+     * Relève la position des objets, et ajoute à la région les zones de
+     * ceux qui ont bougé, sont apparus ou ont disparu depuis le relevé
+     * précédent (ancienne et nouvelle zone)
+     *
+     * @param damage Région à compléter
+     */
+    public void update(DirtyRegion damage) {
+        for(int i = 0; i < count; i++) {
+            GameObject obj = objects[i];
+            boolean show = visible && obj.isVisible();
+
+            bounds.setBounds(obj.getLeft(), obj.getTop(),
+                             sprites[i].getWidth(), sprites[i].getHeight());
+
+            if(show != shown[i] || show && !bounds.equals(drawn[i])) {
+                if(shown[i])
+                    damage.add(drawn[i]);
+                if(show)
+                    damage.add(bounds);
+            }
+
+            drawn[i].setBounds(bounds);
+            shown[i] = show;
+        }
+    }
+
+    /**
+     * Dessine les objets affichés, aux positions du dernier relevé
+     *
+     * @param g Element dans lequel on dessine
+     */
+    public void draw(Graphics g) {
+        for(int i = 0; i < count; i++)
+            if(shown[i])
+                sprites[i].drawAt(g, drawn[i].x, drawn[i].y);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  TextCache.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package game.view;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Textes déjà mis en forme (GlyphVector), par police et par chaîne : un
+ * texte affiché à chaque image n'est mis en forme qu'une fois.
+ *
+ * Le cache est vidé quand le contexte de rendu du texte change (autre
+ * écran, autre lissage), ou s'il dépasse MAX_ENTRIES textes : il est fait
+ * pour des libellés qui changent rarement, pas pour des valeurs
+ * rafraîchies à chaque image.
+ */
+public final class TextCache {
+    public static final int MAX_ENTRIES = 64;
+
+    private final Map<Font, Map<String, GlyphVector>> cache = new HashMap<Font, Map<String, GlyphVector>>();
+    private int size = 0;
+
+    private FontRenderContext context;
+
+
+    /**
+     * Dessine un texte
+     *
+     * @param g Element dans lequel on dessine (un Graphics2D)
+     * @param font Police du texte
+     * @param text Texte à afficher
+     * @param x Abscisse du début du texte
+     * @param y Ordonnée de la ligne de base du texte
+     */
+    public void draw(Graphics g, Font font, String text, int x, int y) {
+        Graphics2D g2 = (Graphics2D) g;
+
+        g2.drawGlyphVector(get(g2.getFontRenderContext(), font, text), x, y);
+    }
+
+    /**
+     * Retourne un texte mis en forme, en le créant si besoin
+     *
+     * @param frc Contexte de rendu du texte
+     * @param font Police du texte
+     * @param text Texte
+     *
+     * @return Le texte mis en forme
+     */
+    public GlyphVector get(FontRenderContext frc, Font font, String text) {
+        if(!frc.equals(context)) {
+            clear();
+            context = frc;
+        }
+
+        Map<String, GlyphVector> byText = cache.get(font);
+        GlyphVector glyphs = byText == null ? null : byText.get(text);
+
+        if(glyphs != null)
+            return glyphs;
+
+        if(size >= MAX_ENTRIES) {
+            clear();
+            byText = null;
+        }
+
+        if(byText == null) {
+            byText = new HashMap<String, GlyphVector>();
+            cache.put(font, byText);
+        }
+
+        glyphs = font.createGlyphVector(frc, text);
+        byText.put(text, glyphs);
+        size++;
+
+        return glyphs;
+    }
+
+    /**
+     * Oublie tous les textes
+     */
+    public void clear() {
+        cache.clear();
+        size = 0;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *  AbstractTransport.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Partie commune aux différents transports : gestion des messages à
+ * confirmer.
+ *
+ * Les sous-classes n'ont qu'à savoir recevoir et envoyer des datagrammes.
+ */
+public abstract class AbstractTransport implements Transport {
+    private static final int NB_TRIES       = 3;
+
+    /**
+     * Nombre maximal de paquets reçus gardés en réserve
+     */
+    private static final int POOL_SIZE      = 4096;
+
+    /**
+     * Timeout à passer à receiveRaw() pour ne pas attendre du tout
+     */
+    protected static final int NO_WAIT      = -1;
+
+    private final AtomicInteger toConfirm = new AtomicInteger();
+
+    /**
+     * Paquets arrivés pendant l'attente d'une confirmation : ils sont rendus
+     * par les prochains appels à receive(), tryReceive() ou poll()
+     */
+    private final Queue<Paquet> received = new ConcurrentLinkedQueue<Paquet>();
+
+    /**
+     * Réserve des paquets reçus (cf. Paquet.release())
+     */
+    protected final PaquetPool pool = new PaquetPool(POOL_SIZE, MAX_DATAGRAM_SIZE);
+
+
+    /**
+     * Reçoit un datagramme
+     *
+     * @param timeout Temps d'attente maximal en millisecondes, 0 pour
+     *                attendre indéfiniment, NO_WAIT pour ne pas attendre
+     *
+     * @return Le paquet reçu, null si rien n'est arrivé à temps
+     *
+     * @throws IOException Si une erreur survient
+     */
+    protected abstract Paquet receiveRaw(int timeout) throws IOException;
+
+    @Override
+    public Paquet receive() throws IOException {
+        return tryReceive(0);
+    }
+
+    @Override
+    public Paquet tryReceive(int timeout) throws IOException {
+        Paquet p = received.poll();
+
+        return handleConfirmation(p != null ? p : receiveRaw(timeout));
+    }
+
+    @Override
+    public Paquet poll() throws IOException {
+        Paquet p = received.poll();
+
+        return handleConfirmation(p != null ? p : receiveRaw(NO_WAIT));
+    }
+
+    /**
+     * Confirme la réception du paquet s'il le demande, et retire alors
+     * le numéro du message.
+     */
+    private Paquet handleConfirmation(Paquet paquet) throws IOException {
+        // les paquets binaires ne sont jamais numérotés : inutile de les
+        // convertir en texte pour le vérifier
+        if(paquet == null || !paquet.isNumbered())
+            return paquet;
+
+        // le numéro est lu sur place (9 chiffres au plus, il tient dans un
+        // int)
+        int number = 0;
+        int i = 0;
+        for(; i < paquet.length() && i < 10; i++) {
+            int digit = paquet.getByte(i) - '0';
+
+            if(digit < 0 || digit > 9)
+                break;
+
+            number = number * 10 + digit;
+        }
+
+        // "<numéro> <message>" seulement (une confirmation "<numéro> OK"
+        // n'en nécessite pas : on la laisse telle quelle)
+        if(i == 10 || i + 1 >= paquet.length() || paquet.getByte(i) != ' '
+           || isConfirmation(paquet, i + 1))
+            return paquet;
+
+        confirm(paquet, number);
+
+        // le numéro est retiré sans recopier le message
+        paquet.skip(i + 1);
+
+        return paquet;
+    }
+
+    /**
+     * Indique si le reste du paquet, à partir de start, est "OK"
+     */
+    private static boolean isConfirmation(Paquet paquet, int start) {
+        return paquet.length() == start + 2
+               && paquet.getByte(start) == 'O' && paquet.getByte(start + 1) == 'K';
+    }
+
+    /**
+     * Les paquets reçus en attendant la confirmation ne sont pas perdus : ils
+     * seront rendus par les appels suivants à receive(), tryReceive() ou
+     * poll(). Cet échange bloquant ne sert plus qu'à la poignée de main : en
+     * cours de partie, les messages à confirmer passent par le canal fiable
+     * (cf. game.protocol.ReliableChannel).
+     */
+    @Override
+    public void sendAndWaitConfirm(InetAddress addr, int port, String msg, int timeout) throws IOException {
+        int number = toConfirm.incrementAndGet();
+        String confirmation = String.format("%d OK", number);
+
+        for(int nbEssais = NB_TRIES; nbEssais != 0; nbEssais--) {
+            try {
+                send(addr, port, String.format("%d %s", number, msg));
+            } catch (IOException e) {
+                continue; // on retente
+            }
+
+            if(waitConfirmation(confirmation, timeout))
+                return;
+        }
+
+        throw new IOException("La confirmation du message \""+msg+"\" n'est pas arrivée");
+    }
+
+    /**
+     * Attend la confirmation donnée en mettant de côté les autres paquets
+     *
+     * @return false si elle n'est pas arrivée à temps
+     */
+    private boolean waitConfirmation(String confirmation, int timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining;
+
+        while((remaining = deadline - System.currentTimeMillis()) > 0) {
+            Paquet reply;
+            try {
+                reply = receiveRaw((int) remaining);
+            } catch (IOException e) {
+                continue;
+            }
+
+            if(reply == null)
+                return false;
+
+            if(reply.isNumbered() && reply.getMessage().equals(confirmation))
+                return true;
+
+            received.add(reply);
+        }
+
+        return false;
+    }
+
+    @Override
+    public void send(InetSocketAddress target, ByteBuffer data) throws IOException {
+        send(target.getAddress(), target.getPort(), data);
+    }
+
+    @Override
+    public void send(InetAddress addr, int port, String msg) throws IOException {
+        send(addr, port, ByteBuffer.wrap(msg.getBytes()));
+    }
+
+    /**
+     * Envoie la confirmation pour accuser réception d'un message
+     *
+     * @param p Paquet dont on confirme la réception
+     * @param msgNo Identifiant du message contenu dans le paquet
+     *
+     * @throws IOException Si l'envoi échoue
+     */
+    private void confirm(Paquet p, int msgNo) throws IOException {
+        send(p.getAddress(), p.getPort(), String.format("%d OK", msgNo));
+    }
+}
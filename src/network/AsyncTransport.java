@@ -0,0 +1,339 @@
+/*
+ *  AsyncTransport.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Transport dont la connexion n'est utilisée que par un thread d'E/S
+ * dédié : les threads du jeu et de l'interface ne touchent jamais à la
+ * socket.
+ *
+ * Les paquets reçus sont transmis par une file sans verrou (cf. SpscRing)
+ * au thread qui les lit. Chaque thread qui envoie a sa propre paire de
+ * files vers le thread d'E/S : les datagrammes y sont recopiés dans des
+ * buffers alloués une fois pour toutes, puis envoyés par le thread d'E/S.
+ *
+ * Comme sur le réseau, un datagramme qui ne trouve pas de place (file
+ * pleine) est perdu plutôt que d'être attendu.
+ */
+public final class AsyncTransport extends AbstractTransport {
+    /**
+     * Capacité de la file des paquets reçus, et de celles de chaque thread
+     * qui envoie
+     */
+    private static final int INBOUND_SIZE   = 256;
+    private static final int OUTBOUND_SIZE  = 64;
+
+    /**
+     * Attente maximale du thread d'E/S quand il n'a rien à faire (un envoi
+     * le réveille aussitôt), en millisecondes
+     */
+    private static final int IDLE_WAIT      = 50;
+
+    /**
+     * Temps laissé au thread d'E/S, à la fermeture, pour envoyer ce qui
+     * reste à envoyer
+     */
+    private static final long CLOSE_DELAY   = 200;
+
+    /**
+     * Datagramme en attente d'envoi
+     */
+    private static final class Datagram {
+        final ByteBuffer data = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        InetSocketAddress target;
+    }
+
+    /**
+     * Files d'un thread qui envoie : les datagrammes prêts vont vers le
+     * thread d'E/S, qui rend les buffers vides par l'autre file
+     */
+    private static final class Outbox {
+        final SpscRing<Datagram> ready = new SpscRing<Datagram>(OUTBOUND_SIZE);
+        final SpscRing<Datagram> free = new SpscRing<Datagram>(OUTBOUND_SIZE);
+
+        /**
+         * Dernier destinataire (cf. send(InetAddress, int, ByteBuffer))
+         */
+        InetSocketAddress lastTarget;
+
+        Outbox() {
+            for(int i = 0; i < OUTBOUND_SIZE; i++)
+                free.offer(new Datagram());
+        }
+    }
+
+    private final ChannelConnection connection;
+    private final Thread ioThread;
+
+    private final SpscRing<Paquet> inbound = new SpscRing<Paquet>(INBOUND_SIZE);
+
+    /**
+     * Files de tous les threads qui ont envoyé quelque chose (le tableau
+     * est remplacé à chaque nouveau thread)
+     */
+    private volatile Outbox[] outboxes = new Outbox[0];
+
+    private final ThreadLocal<Outbox> outbox = new ThreadLocal<Outbox>() {
+        @Override
+        protected Outbox initialValue() {
+            return register();
+        }
+    };
+
+    /**
+     * Thread en attente d'un paquet (à réveiller quand il en arrive un), et
+     * thread d'E/S endormi (à réveiller quand il y a un envoi)
+     */
+    private volatile Thread reader;
+    private final AtomicBoolean ioIdle = new AtomicBoolean();
+
+    private volatile boolean closed = false;
+
+
+    /**
+     * Démarre le thread d'E/S, qui devient seul utilisateur de la
+     * connexion
+     *
+     * @param connection Connexion à utiliser
+     */
+    public AsyncTransport(ChannelConnection connection) {
+        this.connection = connection;
+
+        ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "E/S réseau");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Port local de la connexion
+     */
+    public int getLocalPort() {
+        return connection.getLocalPort();
+    }
+
+    private synchronized Outbox register() {
+        Outbox box = new Outbox();
+
+        Outbox[] boxes = Arrays.copyOf(outboxes, outboxes.length + 1);
+        boxes[boxes.length - 1] = box;
+        outboxes = boxes;
+
+        return box;
+    }
+
+    /**
+     * Boucle du thread d'E/S : envoi de ce que les autres threads ont
+     * déposé, puis réception de ce qui est arrivé
+     */
+    private void serve() {
+        try {
+            while(true) {
+                flushOutboxes();
+
+                // ce qui a été déposé avant la fermeture est parti
+                if(closed)
+                    break;
+
+                ioIdle.set(true);
+
+                // un envoi déposé juste avant de s'endormir n'attend pas
+                Paquet p = connection.tryReceive(hasPendingSends() ? NO_WAIT : IDLE_WAIT);
+
+                ioIdle.set(false);
+
+                while(p != null) {
+                    deliver(p);
+                    p = connection.poll();
+                }
+            }
+        } catch (IOException e) {
+            // connexion fermée ou inutilisable : le lecteur est prévenu
+            closed = true;
+        } finally {
+            connection.close();
+            wakeReader();
+        }
+    }
+
+    private void flushOutboxes() throws IOException {
+        for(Outbox box : outboxes) {
+            Datagram d;
+
+            while((d = box.ready.poll()) != null) {
+                try {
+                    connection.send(d.target, d.data);
+                } catch (IOException e) {
+                    // comme si le datagramme s'était perdu, sauf si la
+                    // connexion est fermée
+                    if(!connection.isOpen())
+                        throw e;
+                }
+
+                box.free.offer(d);
+            }
+        }
+    }
+
+    private boolean hasPendingSends() {
+        for(Outbox box : outboxes) {
+            if(!box.ready.isEmpty())
+                return true;
+        }
+
+        return false;
+    }
+
+    private void deliver(Paquet p) {
+        if(!inbound.offer(p)) {
+            // le lecteur ne suit pas : le paquet est perdu
+            p.release();
+            return;
+        }
+
+        wakeReader();
+    }
+
+    private void wakeReader() {
+        Thread t = reader;
+
+        if(t != null)
+            LockSupport.unpark(t);
+    }
+
+    /**
+     * Retourne un paquet déposé par le thread d'E/S, en attendant qu'il en
+     * arrive un si besoin (sans jamais attendre sur la socket)
+     */
+    @Override
+    protected Paquet receiveRaw(int timeout) throws IOException {
+        Paquet p = inbound.poll();
+
+        if(p != null || timeout == NO_WAIT)
+            return p;
+
+        long deadline = System.nanoTime() + timeout * 1000000L;
+
+        reader = Thread.currentThread();
+
+        try {
+            while(true) {
+                // vérifié après l'inscription comme lecteur : un paquet
+                // déposé entre temps nous a réveillé ou est déjà visible
+                p = inbound.poll();
+                if(p != null)
+                    return p;
+
+                if(closed && !ioThread.isAlive())
+                    throw new IOException("Connexion fermée");
+
+                long remaining = deadline - System.nanoTime();
+
+                if(timeout != 0 && remaining <= 0)
+                    return null;
+
+                LockSupport.parkNanos(this, timeout == 0 ? IDLE_WAIT * 1000000L : remaining);
+            }
+        } finally {
+            reader = null;
+        }
+    }
+
+    @Override
+    public void send(InetAddress addr, int port, ByteBuffer data) throws IOException {
+        Outbox box = outbox.get();
+        InetSocketAddress target = box.lastTarget;
+
+        if(target == null || target.getPort() != port || !target.getAddress().equals(addr))
+            box.lastTarget = target = new InetSocketAddress(addr, port);
+
+        send(box, target, data);
+    }
+
+    @Override
+    public void send(InetSocketAddress target, ByteBuffer data) throws IOException {
+        send(outbox.get(), target, data);
+    }
+
+    /**
+     * Recopie le datagramme dans un buffer libre du thread courant et le
+     * confie au thread d'E/S
+     */
+    private void send(Outbox box, InetSocketAddress target, ByteBuffer data) throws IOException {
+        if(closed)
+            throw new IOException("Connexion fermée");
+
+        if(data.remaining() > MAX_DATAGRAM_SIZE)
+            throw new IOException("Datagramme trop grand : " + data.remaining() + " octets");
+
+        Datagram d = box.free.poll();
+
+        // le thread d'E/S n'a pas encore tout envoyé : perdu
+        if(d == null)
+            return;
+
+        d.target = target;
+        d.data.clear();
+        d.data.put(data);
+        d.data.flip();
+
+        box.ready.offer(d);
+
+        // opération atomique : soit le thread d'E/S voit le datagramme avant
+        // de s'endormir, soit on le voit endormi
+        if(ioIdle.getAndSet(false))
+            connection.wakeup();
+    }
+
+    /**
+     * Arrête le thread d'E/S après qu'il a envoyé ce qui lui a été confié
+     * (en l'attendant un peu), puis ferme la connexion
+     */
+    @Override
+    public void close() {
+        closed = true;
+        connection.wakeup();
+
+        if(Thread.currentThread() == ioThread)
+            return;
+
+        try {
+            ioThread.join(CLOSE_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
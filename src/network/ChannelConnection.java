@@ -0,0 +1,221 @@
+/*
+ *  ChannelConnection.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+
+/**
+ * Transport non bloquant reposant sur un DatagramChannel.
+ *
+ * Les datagrammes sont reçus directement dans des paquets réutilisables
+ * (cf. PaquetPool), le buffer d'émission est alloué une seule fois (hors du
+ * tas Java). L'attente de données passe par un
+ * Selector : poll() ne coûte donc rien lorsqu'aucun paquet n'est arrivé.
+ *
+ * Un même thread peut servir plusieurs connexions en les enregistrant
+ * auprès d'un Selector commun (cf. register()).
+ */
+public class ChannelConnection extends AbstractTransport {
+    private DatagramChannel channel;
+    private Selector selector;
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    /**
+     * Dernier destinataire, conservé pour ne pas recréer son adresse à
+     * chaque envoi
+     */
+    private InetSocketAddress lastTarget;
+
+    /**
+     * Demande d'interruption de l'attente en cours (cf. wakeup())
+     */
+    private volatile boolean wakeupPending = false;
+
+
+    /**
+     * Crée une connexion "client"
+     *
+     * @throws IOException En cas d'erreur
+     */
+    public ChannelConnection() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Crée une connexion "serveur"
+     *
+     * @param port Port du serveur, 0 pour un port quelconque
+     *
+     * @throws IOException En cas d'erreur
+     */
+    public ChannelConnection(int port) throws IOException {
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().bind(new InetSocketAddress(port));
+
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Enregistre la connexion auprès d'un Selector partagé, afin qu'un seul
+     * thread puisse attendre des données sur plusieurs connexions. La clé
+     * retournée a la connexion pour attachement : une fois la clé
+     * sélectionnée, il suffit d'appeler poll() sur celle-ci.
+     *
+     * @param shared Selector commun à plusieurs connexions
+     *
+     * @return La clé d'enregistrement
+     *
+     * @throws IOException Si l'enregistrement est impossible
+     */
+    public SelectionKey register(Selector shared) throws IOException {
+        return channel.register(shared, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Interrompt l'attente en cours dans receive() ou tryReceive() (ou la
+     * prochaine, s'il n'y en a pas), qui retourne alors null si rien n'est
+     * arrivé. Peut être appelée de n'importe quel thread.
+     */
+    public void wakeup() {
+        wakeupPending = true;
+        selector.wakeup();
+    }
+
+    /**
+     * @return false une fois la connexion fermée
+     */
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Port local de la connexion
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    @Override
+    protected Paquet receiveRaw(int timeout) throws IOException {
+        Paquet p = read();
+
+        if(p != null || timeout == NO_WAIT)
+            return p;
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        // select() peut se réveiller sans qu'un paquet soit lisible : on
+        // recommence tant que le délai n'est pas écoulé
+        while(true) {
+            long remaining = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+
+            if(timeout != 0 && remaining <= 0)
+                return null;
+
+            // la connexion peut être fermée par un autre thread pendant
+            // l'attente
+            try {
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+            } catch (ClosedSelectorException e) {
+                throw new IOException("Connexion fermée");
+            }
+
+            p = read();
+            if(p != null)
+                return p;
+
+            if(wakeupPending) {
+                wakeupPending = false;
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Lit un datagramme déjà arrivé
+     *
+     * @return Le paquet lu, null si aucun datagramme n'est en attente
+     */
+    private Paquet read() throws IOException {
+        Paquet p = pool.acquire();
+        ByteBuffer buffer = p.receiveBuffer();
+
+        InetSocketAddress from = (InetSocketAddress) channel.receive(buffer);
+        if(from == null) {
+            p.release();
+            return null;
+        }
+
+        p.filled(from, buffer.position());
+
+        return p;
+    }
+
+    @Override
+    public void send(InetAddress addr, int port, ByteBuffer data) throws IOException {
+        InetSocketAddress target = lastTarget;
+
+        if(target == null || target.getPort() != port || !target.getAddress().equals(addr))
+            lastTarget = target = new InetSocketAddress(addr, port);
+
+        send(target, data);
+    }
+
+    @Override
+    public void send(InetSocketAddress target, ByteBuffer data) throws IOException {
+        if(data.isDirect()) {
+            channel.send(data, target);
+            return;
+        }
+
+        synchronized (sendBuffer) {
+            sendBuffer.clear();
+            sendBuffer.put(data);
+            sendBuffer.flip();
+
+            channel.send(sendBuffer, target);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            // rien à faire de plus
+        }
+    }
+}
@@ -28,15 +28,22 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 
-public class Connection {
+/**
+ * Transport reposant sur une DatagramSocket bloquante.
+ *
+ * Une DatagramSocket ne sait pas ne pas attendre : poll() attend donc
+ * au plus une milliseconde. ChannelConnection est à préférer.
+ */
+public class Connection extends AbstractTransport {
     private DatagramSocket sock;
 
-    private int toConfirm = 0;
-
-    private static final int BUFFER_SIZE    = 1024;
-    private static final int NB_TRIES       = 3;
+    /**
+     * Datagramme de réception, replacé sur le tableau du paquet à remplir
+     */
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0);
 
 
     /**
@@ -59,132 +66,47 @@ public class Connection {
         sock = new DatagramSocket(port);
     }
 
-    /**
-     * Reçoit des données en mode bloquant.
-     *
-     * @return Paquet Les données reçues.
-     *
-     * @throws IOException Si une erreur survient
-     */
-    public Paquet receive() throws IOException {
-        return tryReceive(0);
-    }
-
-    /**
-     * Reçoit des données en mode NON bloquant.
-     *
-     * @param timeout Le timeout au-delà duquel on stoppe l'attente
-     *
-     * @return Paquet Les données reçues.
-     *
-     * @throws IOException Si une erreur survient
-     */
-    public Paquet tryReceive(int timeout) throws IOException {
-        Paquet paquet = receiveRaw(timeout);
-
-        if(paquet == null)
-            return null;
-
-        String[] data = paquet.getMessage().split(" ");
-
-        // on regarde si le message nécessite une confirmation
-        if(data.length > 1) {
-            try {
-                confirm(paquet.getDatagram(), Integer.parseInt(data[0]));
-
-                // reconstruction d'un paquet sans le numéro du paquet
-                String newMsg = paquet.getMessage().substring(data[0].length() + 1);
-
-                paquet.setMessage(newMsg);
-                //return new Paquet(datagram);
-            } catch (NumberFormatException e) {
-                // si pas un nombre : pas une demande de confirmation
-            }
-        }
-
-        return paquet;
-    }
-
-    private Paquet receiveRaw(int timeout) throws IOException {
+    @Override
+    protected Paquet receiveRaw(int timeout) throws IOException {
         try {
-            sock.setSoTimeout(timeout);
+            sock.setSoTimeout(timeout == NO_WAIT ? 1 : timeout);
         } catch (SocketException e) {
             throw new IOException("Impossible de définir le timeout pour la réception");
         }
 
-        byte[] buffer = new byte[BUFFER_SIZE];
-        DatagramPacket p = new DatagramPacket(buffer, buffer.length);
-
-        try {
-            sock.receive(p);
+        Paquet p = pool.acquire();
 
-            return new Paquet(p);
-        } catch (SocketTimeoutException e) {
-            // on ignore : null sera retourné
-        }
-
-        return null;
-    }
-
-    public void sendAndWaitConfirm(InetAddress addr, int port, String msg, int timeout) throws IOException {
-        toConfirm++;
-
-        Paquet reply;
-        for(int nbEssais = NB_TRIES; nbEssais != 0; nbEssais--) {
-            try {
-                send(addr, port, String.format("%d %s", toConfirm, msg));
-            } catch (IOException e) {
-                continue; // on retente
-            }
+        synchronized (packet) {
+            packet.setData(p.array());
 
             try {
-                reply = receiveRaw(timeout);
-            } catch (IOException e) {
-                continue;
+                sock.receive(packet);
+            } catch (SocketTimeoutException e) {
+                // on ignore : null sera retourné
+                p.release();
+                return null;
             }
 
-            if(reply != null && reply.getMessage().equals(String.format("%d OK", toConfirm)))
-                return;
+            p.filled(packet);
         }
 
-        throw new IOException("La confirmation du message \""+msg+"\" n'est pas arrivée");
-    }
-
-    /**
-     * Envoie un message sans confirmation.
-     *
-     * @param addr Adresse de l'hôte à contacter
-     * @param port Port de l'hôte à contacter
-     * @param msg Message à envoyer
-     *
-     * @throws IOException Si on ne parvient pas à envoyer le message
-     */
-    public void send(InetAddress addr, int port, String msg) throws IOException {
-        sock.send(new DatagramPacket(msg.getBytes(), msg.length(), addr, port));
+        return p;
     }
 
-    /**
-     * Envoie la confirmation pour accuser réception d'un message
-     *
-     * @param p DatagramPacket dont on confirme la réception
-     * @param msgNo Identifiant du message contenu dans le paquet
-     *
-     * @throws IOException Si l'envoi échoue
-     */
-    private void confirm(DatagramPacket p, int msgNo) throws IOException {
-        String msg = String.format("%d OK", msgNo);
+    @Override
+    public void send(InetAddress addr, int port, ByteBuffer data) throws IOException {
+        if(!data.hasArray()) {
+            byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            data = ByteBuffer.wrap(copy);
+        }
 
-        sock.send(new DatagramPacket(msg.getBytes(), msg.length(), p.getAddress(), p.getPort()));
+        sock.send(new DatagramPacket(data.array(), data.arrayOffset() + data.position(),
+                                     data.remaining(), addr, port));
     }
 
-    /**
-     * On ferme proprement la socket dès que l'objet est détruit
-     *
-     * @throws Throwable Bouh.
-     */
     @Override
-    public void finalize() throws Throwable {
-         sock.close();
-         super.finalize();
+    public void close() {
+        sock.close();
     }
 }
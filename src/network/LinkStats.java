@@ -0,0 +1,227 @@
+/*
+ *  LinkStats.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+
+/**
+ * Qualité du lien avec un hôte : temps d'aller-retour, gigue et pertes
+ * dans chaque sens.
+ *
+ * Le temps d'aller-retour lissé est celui de l'RttEstimator donné, qui
+ * sert aussi au calcul des délais de renvoi. La gigue est la variation
+ * lissée entre deux mesures successives (même calcul que RFC 3550). Les
+ * pertes des datagrammes reçus sont lissées à chaque appel à sampleLoss(),
+ * celles des datagrammes envoyés sont rapportées par l'hôte distant.
+ */
+public final class LinkStats {
+    /**
+     * Poids d'une nouvelle mesure de pertes dans la moyenne lissée
+     */
+    private static final double LOSS_GAIN = 0.125;
+
+    private final RttEstimator rtt;
+
+    /**
+     * Numéros des datagrammes reçus
+     */
+    private final SequenceTracker frames = new SequenceTracker();
+
+    private long lastRtt = -1;
+    private long minRtt = -1;
+    private long jitter = 0;
+    private long samples = 0;
+    private long lastSampleAt;
+
+    /**
+     * Compteurs de frames au dernier appel à sampleLoss()
+     */
+    private long sampledReceived = 0, sampledLost = 0;
+
+    private double loss = 0;
+    private double remoteLoss = 0;
+
+    /**
+     * Heure (System.nanoTime()) du dernier datagramme reçu
+     */
+    private long lastHeardAt = System.nanoTime();
+
+
+    public LinkStats(RttEstimator rtt) {
+        this.rtt = rtt;
+    }
+
+    /**
+     * Prend en compte une mesure du temps d'aller-retour
+     *
+     * @param sample Temps d'aller-retour mesuré, en nanosecondes
+     */
+    public synchronized void addRttSample(long sample) {
+        if(sample < 0)
+            return;
+
+        rtt.addSample(sample);
+
+        if(lastRtt >= 0)
+            jitter += (Math.abs(sample - lastRtt) - jitter) / 16;
+
+        if(minRtt < 0 || sample < minRtt)
+            minRtt = sample;
+
+        lastRtt = sample;
+        lastSampleAt = System.nanoTime();
+        samples++;
+    }
+
+    /**
+     * Prend en compte un datagramme reçu (cf. SequenceTracker.accept())
+     *
+     * @return false s'il est en retard ou en double
+     */
+    public boolean acceptFrame(int sequence) {
+        return frames.accept(sequence);
+    }
+
+    /**
+     * Un datagramme vient d'arriver de l'hôte distant
+     *
+     * @param now Heure courante (System.nanoTime())
+     */
+    public synchronized void heard(long now) {
+        lastHeardAt = now;
+    }
+
+    /**
+     * @return Temps écoulé depuis le dernier datagramme reçu (ou depuis la
+     *         création, s'il n'y en a pas eu), en nanosecondes
+     */
+    public synchronized long getIdleTime(long now) {
+        return now - lastHeardAt;
+    }
+
+    /**
+     * Met à jour la proportion lissée de datagrammes reçus perdus, avec
+     * ceux attendus depuis l'appel précédent
+     *
+     * @return La nouvelle proportion (entre 0 et 1)
+     */
+    public synchronized double sampleLoss() {
+        long received = frames.getReceived();
+        long lost = frames.getLost();
+        long expected = (received - sampledReceived) + (lost - sampledLost);
+
+        if(expected > 0) {
+            double sample = Math.max(0, (double) (lost - sampledLost) / expected);
+            loss += (sample - loss) * LOSS_GAIN;
+        }
+
+        sampledReceived = received;
+        sampledLost = lost;
+
+        return loss;
+    }
+
+    /**
+     * Proportion des datagrammes envoyés perdus, telle que rapportée par
+     * l'hôte distant
+     */
+    public synchronized void setRemoteLoss(double remoteLoss) {
+        this.remoteLoss = remoteLoss;
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rtt;
+    }
+
+    /**
+     * @return Statistiques cumulées des datagrammes reçus
+     */
+    public SequenceTracker getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return Temps d'aller-retour lissé en nanosecondes, -1 si aucune
+     *         mesure n'a encore été faite
+     */
+    public long getSrtt() {
+        return rtt.getSrtt();
+    }
+
+    /**
+     * @return Dernier temps d'aller-retour mesuré, en nanosecondes (-1 si
+     *         aucune mesure n'a été faite)
+     */
+    public synchronized long getLastRtt() {
+        return lastRtt;
+    }
+
+    /**
+     * @return Plus petit temps d'aller-retour mesuré (celui d'un lien sans
+     *         file d'attente), -1 si aucune mesure n'a été faite
+     */
+    public synchronized long getMinRtt() {
+        return minRtt;
+    }
+
+    /**
+     * @return Heure (System.nanoTime()) de la dernière mesure
+     */
+    public synchronized long getLastSampleAt() {
+        return lastSampleAt;
+    }
+
+    /**
+     * @return Gigue lissée, en nanosecondes
+     */
+    public synchronized long getJitter() {
+        return jitter;
+    }
+
+    /**
+     * @return Nombre de mesures du temps d'aller-retour
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return Proportion lissée des datagrammes reçus perdus
+     */
+    public synchronized double getLoss() {
+        return loss;
+    }
+
+    /**
+     * @return Proportion lissée des datagrammes envoyés perdus
+     */
+    public synchronized double getRemoteLoss() {
+        return remoteLoss;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("rtt %.1f ms, gigue %.1f ms, pertes %.1f %% reçus / %.1f %% envoyés",
+                             Math.max(0, getSrtt()) / 1e6, jitter / 1e6,
+                             100 * loss, 100 * remoteLoss);
+    }
+}
@@ -23,31 +23,258 @@
 package network;
 
 import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
+
+/**
+ * Datagramme reçu : une zone d'un tableau, et son expéditeur.
+ *
+ * Les paquets créés par les transports viennent d'une réserve (cf.
+ * PaquetPool) et doivent lui être rendus une fois traités (cf.
+ * release()) : ni le paquet, ni son tableau, ni la vue retournée par
+ * getData() ne sont alors réalloués pour le datagramme suivant.
+ */
 public class Paquet {
-    private DatagramPacket p;
+    private InetSocketAddress sender;
+
+    private final byte[] data;
+    private int offset;
+    private int length;
+
+    /**
+     * Vue sur le tableau, réutilisée par getData()
+     */
+    private final ByteBuffer view;
+
     private String msg;
 
+    /**
+     * Heure de réception par le transport (cf. System.nanoTime())
+     */
+    private long receivedAt;
+
+    /**
+     * Réserve d'origine (null si le paquet n'en vient pas), et indique si
+     * le paquet y est rangé
+     */
+    private final PaquetPool pool;
+    private boolean pooled = false;
+
+
+    /**
+     * Crée un paquet à partir de données reçues sur un canal : les données
+     * (de la position à la limite du buffer) sont copiées.
+     *
+     * @param from Expéditeur du paquet
+     * @param buffer Données reçues
+     */
+    public Paquet(InetSocketAddress from, ByteBuffer buffer) {
+        this(buffer.remaining(), null);
+
+        buffer.get(data);
+        filled(from, data.length);
+    }
+
+    /**
+     * Crée un paquet vide, pour une réserve
+     */
+    Paquet(int capacity, PaquetPool pool) {
+        data = new byte[capacity];
+        view = ByteBuffer.wrap(data);
+        this.pool = pool;
+    }
+
+    /**
+     * @return Buffer (vidé) dans lequel recevoir le datagramme
+     */
+    ByteBuffer receiveBuffer() {
+        view.clear();
+
+        return view;
+    }
+
+    /**
+     * @return Tableau dans lequel recevoir le datagramme
+     */
+    byte[] array() {
+        return data;
+    }
+
+    /**
+     * Le datagramme a été reçu au début du tableau
+     *
+     * @param from Expéditeur
+     * @param length Taille du datagramme
+     */
+    void filled(InetSocketAddress from, int length) {
+        sender = from;
+        offset = 0;
+        this.length = length;
+        msg = null;
+        receivedAt = System.nanoTime();
+    }
+
+    /**
+     * Le datagramme a été reçu dans le tableau du paquet par une
+     * DatagramSocket
+     */
+    void filled(DatagramPacket p) {
+        InetSocketAddress from = sender;
+
+        if(from == null || from.getPort() != p.getPort() || !from.getAddress().equals(p.getAddress()))
+            from = new InetSocketAddress(p.getAddress(), p.getPort());
+
+        filled(from, p.getLength());
+    }
+
+    /**
+     * Heure à laquelle le transport a reçu le datagramme : avec un thread
+     * de réception (cf. AsyncTransport), elle ne dépend pas du moment où
+     * la boucle de jeu le traite
+     *
+     * @return Heure de réception (cf. System.nanoTime())
+     */
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * Rend le paquet à sa réserve. Il ne doit plus être utilisé ensuite,
+     * pas plus que les buffers obtenus par getData().
+     */
+    public void release() {
+        if(pool != null)
+            pool.release(this);
+    }
+
+    boolean isPooled() {
+        return pooled;
+    }
 
-    public Paquet(DatagramPacket p) {
-        this.p = p;
-        this.msg = new String(p.getData(), 0, p.getLength());
+    void setPooled(boolean pooled) {
+        this.pooled = pooled;
     }
 
-    public DatagramPacket getDatagram() {
-        return p;
+    /**
+     * Expéditeur du paquet
+     */
+    public InetSocketAddress getSender() {
+        return sender;
     }
 
+    /**
+     * Adresse de l'expéditeur du paquet
+     */
+    public InetAddress getAddress() {
+        return sender.getAddress();
+    }
+
+    /**
+     * Port de l'expéditeur du paquet
+     */
+    public int getPort() {
+        return sender.getPort();
+    }
+
+    /**
+     * Retourne le contenu du paquet sous forme de texte. La chaîne n'est
+     * construite qu'au premier appel : les paquets binaires n'en ont pas
+     * besoin.
+     */
     public String getMessage() {
+        if(msg == null)
+            msg = new String(data, offset, length);
+
         return msg;
     }
 
-    public void setMessage(String message) {
-        DatagramPacket datagram = new DatagramPacket(message.getBytes(), message.length());
-        datagram.setAddress(p.getAddress());
-        datagram.setPort(p.getPort());
+    /**
+     * Retourne le contenu brut du paquet, sans copie. La même vue est
+     * retournée à chaque appel, replacée sur le contenu du paquet.
+     */
+    public ByteBuffer getData() {
+        view.clear();
+        view.position(offset);
+        view.limit(offset + length);
+
+        return view;
+    }
+
+    /**
+     * Taille du contenu du paquet
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Lecture du contenu, en big-endian comme ByteBuffer
+     *
+     * @param index Position dans le contenu du paquet
+     *
+     * @throws IndexOutOfBoundsException Si la valeur dépasse du contenu
+     */
+    public byte getByte(int index) {
+        checkIndex(index, 1);
+
+        return data[offset + index];
+    }
+
+    public short getShort(int index) {
+        checkIndex(index, 2);
+
+        return (short) ((data[offset + index] << 8) | (data[offset + index + 1] & 0xFF));
+    }
+
+    public int getInt(int index) {
+        checkIndex(index, 4);
+
+        int value = 0;
+        for(int i = offset + index; i < offset + index + 4; i++)
+            value = (value << 8) | (data[i] & 0xFF);
+
+        return value;
+    }
+
+    public long getLong(int index) {
+        checkIndex(index, 8);
+
+        return ((long) getInt(index) << 32) | (getInt(index + 4) & 0xFFFFFFFFL);
+    }
+
+    private void checkIndex(int index, int size) {
+        if(index < 0 || index > length - size)
+            throw new IndexOutOfBoundsException("Lecture hors du paquet : " + index);
+    }
+
+    /**
+     * Indique si le paquet commence par un chiffre, c'est à dire s'il peut
+     * s'agir d'un message à confirmer ("<numéro> <message>") ou d'une
+     * confirmation ("<numéro> OK").
+     */
+    public boolean isNumbered() {
+        if(length == 0)
+            return false;
+
+        byte first = data[offset];
+
+        return first >= '0' && first <= '9';
+    }
+
+    /**
+     * Retire le début du contenu (un entête déjà lu) : seul le début de la
+     * zone avance, rien n'est copié
+     *
+     * @param n Nombre d'octets à retirer
+     */
+    public void skip(int n) {
+        if(n < 0 || n > length)
+            throw new IndexOutOfBoundsException("Entête plus long que le paquet");
 
-        p = datagram;
-        msg = message;
+        offset += n;
+        length -= n;
+        msg = null;
     }
 }
@@ -0,0 +1,107 @@
+/*
+ *  PaquetPool.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+
+/**
+ * Réserve de paquets réutilisables, chacun avec son propre tableau de
+ * réception.
+ *
+ * Un transport y prend un paquet à chaque datagramme reçu, celui qui l'a
+ * traité le rend (cf. Paquet.release()). Un paquet qui n'est pas rendu
+ * n'est pas perdu pour autant : il est simplement ramassé par le GC, et la
+ * réserve en crée un autre.
+ *
+ * Les paquets sont pris par le thread de réception et rendus par ceux de
+ * traitement : toutes les méthodes sont synchronisées.
+ */
+public final class PaquetPool {
+    private final Paquet[] free;
+    private int nbFree = 0;
+
+    private final int bufferSize;
+
+    /**
+     * Nombre de paquets créés depuis la création de la réserve
+     */
+    private long created = 0;
+
+
+    /**
+     * @param maxFree Nombre maximal de paquets gardés en réserve
+     * @param bufferSize Taille du tableau de chaque paquet (les datagrammes
+     *                   plus grands sont tronqués)
+     */
+    public PaquetPool(int maxFree, int bufferSize) {
+        if(maxFree < 0 || bufferSize <= 0)
+            throw new IllegalArgumentException("Taille de réserve incorrecte");
+
+        free = new Paquet[maxFree];
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return Un paquet libre, vide (à remplir par le transport)
+     */
+    public Paquet acquire() {
+        synchronized (this) {
+            if(nbFree > 0) {
+                Paquet p = free[--nbFree];
+                free[nbFree] = null;
+                p.setPooled(false);
+
+                return p;
+            }
+
+            created++;
+        }
+
+        return new Paquet(bufferSize, this);
+    }
+
+    /**
+     * Remet un paquet en réserve (un paquet déjà rendu est ignoré)
+     */
+    synchronized void release(Paquet p) {
+        if(p.isPooled() || nbFree == free.length)
+            return;
+
+        p.setPooled(true);
+        free[nbFree++] = p;
+    }
+
+    /**
+     * @return Nombre de paquets créés jusqu'ici : il cesse d'augmenter une
+     *         fois la réserve remplie
+     */
+    public synchronized long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return Nombre de paquets disponibles
+     */
+    public synchronized int getFree() {
+        return nbFree;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  RttEstimator.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+
+/**
+ * Estimation du temps d'aller-retour vers un hôte, et du délai au-delà
+ * duquel un message non acquitté doit être renvoyé (RTO).
+ *
+ * Même calcul que TCP (RFC 6298) : moyenne lissée et variation lissée des
+ * mesures, RTO = moyenne + 4 x variation, doublé à chaque expiration.
+ */
+public final class RttEstimator {
+    /**
+     * Bornes du RTO, et sa valeur tant qu'aucune mesure n'a été faite
+     * (l'ancien délai d'attente des confirmations), en nanosecondes
+     */
+    public static final long MIN_RTO     =   50000000L;
+    public static final long MAX_RTO     = 2000000000L;
+    public static final long INITIAL_RTO =  500000000L;
+
+    /**
+     * Précision de l'horloge utilisée pour les mesures
+     */
+    private static final long GRANULARITY = 1000000L;
+
+    private long srtt = -1;
+    private long rttVar = 0;
+    private long rto = INITIAL_RTO;
+
+
+    /**
+     * Prend en compte une mesure. Les mesures faites sur des messages
+     * renvoyés sont ambiguës et ne doivent pas être données (algorithme de
+     * Karn).
+     *
+     * @param rtt Temps d'aller-retour mesuré, en nanosecondes
+     */
+    public synchronized void addSample(long rtt) {
+        if(rtt < 0)
+            return;
+
+        if(srtt < 0) {
+            srtt = rtt;
+            rttVar = rtt / 2;
+        } else {
+            rttVar = (3 * rttVar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+
+        rto = clamp(srtt + Math.max(GRANULARITY, 4 * rttVar));
+    }
+
+    /**
+     * Un message n'a pas été acquitté à temps : on attendra deux fois plus
+     * longtemps le suivant
+     */
+    public synchronized void backoff() {
+        rto = clamp(rto * 2);
+    }
+
+    /**
+     * @return Délai avant de renvoyer un message, en nanosecondes
+     */
+    public synchronized long getRto() {
+        return rto;
+    }
+
+    /**
+     * @return Temps d'aller-retour lissé en nanosecondes, -1 si aucune
+     *         mesure n'a encore été faite
+     */
+    public synchronized long getSrtt() {
+        return srtt;
+    }
+
+    /**
+     * @return Variation lissée du temps d'aller-retour, en nanosecondes
+     */
+    public synchronized long getRttVar() {
+        return rttVar;
+    }
+
+    private static long clamp(long value) {
+        return Math.max(MIN_RTO, Math.min(value, MAX_RTO));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("srtt %.1f ms, rttvar %.1f ms, rto %.0f ms",
+                             srtt / 1e6, rttVar / 1e6, rto / 1e6);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  SendRateController.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+
+/**
+ * Adapte la fréquence d'envoi de l'état de la partie à la qualité du lien
+ * (AIMD, comme TCP) : elle est divisée par deux quand le lien montre des
+ * signes d'encombrement, puis remonte progressivement quand il se remet.
+ *
+ * Le lien est jugé encombré quand l'hôte distant rapporte des pertes,
+ * quand la dernière mesure du temps d'aller-retour dépasse nettement la
+ * plus petite (les datagrammes font la queue quelque part : la moyenne
+ * lissée réagirait trop tard), ou quand plus aucune mesure n'arrive.
+ *
+ * Pendant une pause volontaire du jeu ou après un blocage de la boucle,
+ * le contrôleur est suspendu (cf. suspend()) : ni le silence, ni les
+ * mesures prises jusque là ne sont alors des signes d'encombrement.
+ */
+public final class SendRateController {
+    /**
+     * Délai entre deux ajustements, et délai minimal entre deux baisses
+     * (le temps que les mesures lissées reflètent la précédente), en
+     * nanosecondes
+     */
+    private static final long UPDATE_INTERVAL = 250000000L;
+    private static final long DECREASE_HOLD   = 500000000L;
+
+    /**
+     * Hausse de la fréquence à chaque ajustement sans encombrement, et
+     * facteur appliqué en cas d'encombrement
+     */
+    private static final double INCREASE_STEP   = 5;
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /**
+     * Seuils d'encombrement : pertes rapportées, attente dans les files
+     * (nanosecondes), absence de mesure (nanosecondes)
+     */
+    private static final double LOSS_THRESHOLD  = 0.05;
+    private static final long QUEUE_THRESHOLD   = 40000000L;
+    private static final long SILENCE_THRESHOLD = 1000000000L;
+
+    private final double minRate, maxRate;
+
+    private double rate;
+
+    private long nextUpdateAt;
+    private long lastDecreaseAt;
+    private boolean started = false;
+
+    private long nextSendAt;
+    private boolean sent = false;
+
+    /**
+     * Dernier appel à suspend()
+     */
+    private long suspendedAt;
+    private boolean suspended = false;
+
+
+    /**
+     * @param minRate Fréquence minimale (envois par seconde)
+     * @param maxRate Fréquence maximale, et initiale
+     *
+     * @throws IllegalArgumentException Si les bornes sont incohérentes
+     */
+    public SendRateController(int minRate, int maxRate) {
+        if(minRate < 1 || maxRate < minRate)
+            throw new IllegalArgumentException("Bornes de la fréquence d'envoi incorrectes");
+
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        rate = maxRate;
+    }
+
+    /**
+     * Ajuste la fréquence d'après les mesures du lien, au plus une fois
+     * tous les UPDATE_INTERVAL
+     *
+     * @param link Mesures du lien avec l'hôte distant
+     * @param now Heure courante (System.nanoTime())
+     */
+    public synchronized void update(LinkStats link, long now) {
+        if(!started) {
+            started = true;
+            nextUpdateAt = now + UPDATE_INTERVAL;
+            lastDecreaseAt = now - DECREASE_HOLD;
+            return;
+        }
+
+        if(now - nextUpdateAt < 0)
+            return;
+
+        nextUpdateAt = now + UPDATE_INTERVAL;
+
+        if(isCongested(link, now)) {
+            if(now - lastDecreaseAt >= DECREASE_HOLD) {
+                rate = Math.max(minRate, rate * DECREASE_FACTOR);
+                lastDecreaseAt = now;
+            }
+        } else {
+            rate = Math.min(maxRate, rate + INCREASE_STEP);
+        }
+    }
+
+    /**
+     * Suspend les ajustements jusqu'au prochain UPDATE_INTERVAL. A appeler
+     * à chaque tour pendant une pause volontaire (clignotement, partie en
+     * pause) et après un blocage de la boucle : les mesures prises jusque
+     * là ne comptent plus, et le silence se compte à partir d'ici.
+     *
+     * @param now Heure courante (System.nanoTime())
+     */
+    public synchronized void suspend(long now) {
+        suspendedAt = now;
+        suspended = true;
+        nextUpdateAt = now + UPDATE_INTERVAL;
+    }
+
+    /**
+     * Sans mesure (mode texte, début de partie), le lien est présumé sain
+     */
+    private boolean isCongested(LinkStats link, long now) {
+        if(link.getSamples() == 0)
+            return false;
+
+        if(link.getRemoteLoss() > LOSS_THRESHOLD)
+            return true;
+
+        // dernière mesure antérieure à une suspension : seul le silence
+        // depuis la suspension compte
+        long lastSampleAt = link.getLastSampleAt();
+        if(suspended && lastSampleAt - suspendedAt < 0)
+            return now - suspendedAt > SILENCE_THRESHOLD;
+
+        return link.getLastRtt() - link.getMinRtt() > QUEUE_THRESHOLD
+               || now - lastSampleAt > SILENCE_THRESHOLD;
+    }
+
+    /**
+     * Indique s'il est temps d'envoyer l'état de la partie, et si oui
+     * décompte cet envoi
+     *
+     * @param now Heure courante (System.nanoTime())
+     */
+    public synchronized boolean shouldSend(long now) {
+        long interval = (long) (1e9 / rate);
+
+        // un quart d'intervalle de tolérance : appelée à chaque tick, la
+        // fréquence maximale ne doit pas sauter un tick un peu en avance
+        if(sent && now - nextSendAt < -interval / 4)
+            return false;
+
+        // après une longue pause, pas de rafale pour rattraper
+        if(!sent || now - nextSendAt > interval)
+            nextSendAt = now + interval;
+        else
+            nextSendAt += interval;
+
+        sent = true;
+
+        return true;
+    }
+
+    /**
+     * @return Fréquence d'envoi courante (envois par seconde)
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%.0f envois/s (entre %.0f et %.0f)", rate, minRate, maxRate);
+    }
+}
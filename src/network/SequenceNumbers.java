@@ -0,0 +1,70 @@
+/*
+ *  SequenceNumbers.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+
+/**
+ * Opérations sur les numéros de séquence codés sur 16 bits.
+ *
+ * Les numéros reviennent à 0 après 65535 : un numéro est considéré plus
+ * récent qu'un autre s'il le suit de moins de 32768.
+ */
+public final class SequenceNumbers {
+    public static final int MASK = 0xFFFF;
+    private static final int HALF = 0x8000;
+
+
+    private SequenceNumbers() { }
+
+    /**
+     * Numéro suivant
+     */
+    public static int next(int seq) {
+        return (seq + 1) & MASK;
+    }
+
+    /**
+     * Numéro précédent
+     */
+    public static int previous(int seq) {
+        return (seq - 1) & MASK;
+    }
+
+    /**
+     * Indique si a est strictement plus récent que b
+     */
+    public static boolean isNewer(int a, int b) {
+        int diff = (a - b) & MASK;
+
+        return diff != 0 && diff < HALF;
+    }
+
+    /**
+     * Nombre de numéros séparant b de a (négatif si a est plus ancien)
+     */
+    public static int distance(int a, int b) {
+        int diff = (a - b) & MASK;
+
+        return diff < HALF ? diff : diff - (MASK + 1);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  SequenceTracker.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+
+/**
+ * Suit les numéros (sur 16 bits) des paquets reçus d'un hôte : indique si
+ * un paquet est plus récent que tous les précédents, et compte les paquets
+ * perdus, arrivés dans le désordre ou en double.
+ *
+ * Un paquet qui arrive après un plus récent est d'abord compté perdu, puis
+ * compté en retard (et plus perdu) s'il finit par arriver.
+ */
+public final class SequenceTracker {
+    /**
+     * Nombre de numéros précédant le plus récent dont on se souvient, pour
+     * reconnaître les doublons
+     */
+    private static final int WINDOW = 32;
+
+    private int highest;
+    private boolean started = false;
+
+    /**
+     * Bit i : le paquet highest - i a été reçu
+     */
+    private int recent = 0;
+
+    private long received = 0;
+    private long lost = 0;
+    private long reordered = 0;
+    private long duplicates = 0;
+
+
+    /**
+     * Prend en compte un paquet reçu
+     *
+     * @param sequence Numéro du paquet
+     *
+     * @return true si c'est le plus récent reçu jusqu'ici, false s'il est
+     *         en retard ou en double (son contenu est alors périmé)
+     */
+    public synchronized boolean accept(int sequence) {
+        if(!started) {
+            started = true;
+            highest = sequence;
+            recent = 1;
+            received++;
+
+            return true;
+        }
+
+        int distance = SequenceNumbers.distance(sequence, highest);
+
+        if(distance > 0) {
+            lost += distance - 1;
+            recent = distance < WINDOW ? (recent << distance) | 1 : 1;
+            highest = sequence;
+            received++;
+
+            return true;
+        }
+
+        int age = -distance;
+
+        if(age < WINDOW && (recent & (1 << age)) != 0) {
+            duplicates++;
+            return false;
+        }
+
+        // arrivé en retard : il avait été compté perdu
+        received++;
+        reordered++;
+
+        if(age < WINDOW) {
+            recent |= 1 << age;
+            lost--;
+        }
+
+        return false;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized long getReordered() {
+        return reordered;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return Proportion des paquets envoyés qui ne sont pas arrivés
+     */
+    public synchronized double getLossRate() {
+        long expected = received + lost;
+
+        return expected == 0 ? 0 : (double) lost / expected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d reçus, %d perdus (%.1f %%), %d en retard, %d en double",
+                             received, lost, 100 * getLossRate(), reordered, duplicates);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  SessionTokens.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+import java.security.SecureRandom;
+
+
+/**
+ * Jetons de session : remis au client lors de la poignée de main, ils lui
+ * permettent de reprendre sa partie depuis une autre adresse (changement
+ * de réseau, NAT qui réattribue son port...).
+ *
+ * Ils sont tirés au hasard par un générateur cryptographique : un tiers ne
+ * peut pas les deviner pour s'approprier une partie.
+ */
+public final class SessionTokens {
+    /**
+     * Valeur réservée : pas de jeton
+     */
+    public static final long NONE = 0;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+
+    private SessionTokens() {
+    }
+
+    /**
+     * @return Un nouveau jeton (jamais NONE)
+     */
+    public static long generate() {
+        long token;
+
+        do {
+            token = RANDOM.nextLong();
+        } while(token == NONE);
+
+        return token;
+    }
+}
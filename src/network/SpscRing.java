@@ -0,0 +1,130 @@
+/*
+ *  SpscRing.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * File bornée sans verrou entre exactement deux threads : un seul thread
+ * ajoute (offer()), un seul thread retire (poll()).
+ *
+ * Chaque côté garde une copie de l'indice de l'autre et ne la relit que
+ * lorsque la file lui semble pleine (ou vide) : dans le cas courant, un
+ * ajout ou un retrait ne touche qu'à un seul indice partagé. Rien n'est
+ * alloué après la création de la file.
+ */
+public final class SpscRing<E> {
+    private final Object[] items;
+    private final int mask;
+
+    /**
+     * Prochain élément à retirer (écrit par le consommateur), prochaine
+     * case à remplir (écrite par le producteur)
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Dernières valeurs lues de l'indice de l'autre côté
+     */
+    private long cachedHead = 0;
+    private long cachedTail = 0;
+
+
+    /**
+     * @param capacity Nombre maximal d'éléments (une puissance de 2)
+     *
+     * @throws IllegalArgumentException Si la capacité n'est pas une
+     *                                  puissance de 2
+     */
+    public SpscRing(int capacity) {
+        if(capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("Capacité incorrecte : doit être une puissance de 2");
+
+        items = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Ajoute un élément. A n'appeler que depuis le thread producteur.
+     *
+     * @return false si la file est pleine (l'élément n'est pas ajouté)
+     */
+    public boolean offer(E e) {
+        long t = tail.get();
+
+        if(t - cachedHead == items.length) {
+            cachedHead = head.get();
+
+            if(t - cachedHead == items.length)
+                return false;
+        }
+
+        items[(int) t & mask] = e;
+
+        // publication de l'élément : écriture ordonnée, sans barrière
+        // complète
+        tail.lazySet(t + 1);
+
+        return true;
+    }
+
+    /**
+     * Retire l'élément le plus ancien. A n'appeler que depuis le thread
+     * consommateur.
+     *
+     * @return L'élément, null si la file est vide
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+
+        if(h == cachedTail) {
+            cachedTail = tail.get();
+
+            if(h == cachedTail)
+                return null;
+        }
+
+        int i = (int) h & mask;
+        E e = (E) items[i];
+        items[i] = null;
+
+        head.lazySet(h + 1);
+
+        return e;
+    }
+
+    /**
+     * Indique si la file est vide. Peut être appelée de n'importe quel
+     * thread, mais la réponse peut être périmée aussitôt.
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Transport.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Moyen de communication avec le joueur distant (ou les clients, côté
+ * serveur).
+ *
+ * Les messages texte de la forme "<numéro> <message>" sont confirmés
+ * automatiquement à leur réception, et le numéro est retiré du paquet
+ * retourné.
+ *
+ * Les paquets retournés peuvent venir d'une réserve : une fois traité, un
+ * paquet devrait lui être rendu (cf. Paquet.release()).
+ */
+public interface Transport {
+    /**
+     * Taille maximale d'un datagramme, en octets : assez petite pour ne
+     * jamais être fragmenté (MTU courante moins les entêtes IP/UDP, avec de
+     * la marge). Les tampons de réception ont tous cette taille.
+     */
+    int MAX_DATAGRAM_SIZE = 1200;
+
+    /**
+     * Reçoit des données en mode bloquant.
+     *
+     * @return Paquet Les données reçues.
+     *
+     * @throws IOException Si une erreur survient
+     */
+    Paquet receive() throws IOException;
+
+    /**
+     * Reçoit des données en attendant au plus timeout millisecondes.
+     *
+     * @param timeout Le timeout au-delà duquel on stoppe l'attente
+     *
+     * @return Paquet Les données reçues, null si rien n'est arrivé à temps
+     *
+     * @throws IOException Si une erreur survient
+     */
+    Paquet tryReceive(int timeout) throws IOException;
+
+    /**
+     * Retourne un paquet déjà arrivé, sans attendre.
+     *
+     * @return Paquet Les données reçues, null si aucun paquet n'est en attente
+     *
+     * @throws IOException Si une erreur survient
+     */
+    Paquet poll() throws IOException;
+
+    /**
+     * Envoie un message texte et attend sa confirmation.
+     *
+     * @param addr Adresse de l'hôte à contacter
+     * @param port Port de l'hôte à contacter
+     * @param msg Message à envoyer
+     * @param timeout Temps d'attente de la confirmation, pour chaque essai
+     *
+     * @throws IOException Si la confirmation n'est jamais arrivée
+     */
+    void sendAndWaitConfirm(InetAddress addr, int port, String msg, int timeout) throws IOException;
+
+    /**
+     * Envoie un message texte sans confirmation.
+     *
+     * @param addr Adresse de l'hôte à contacter
+     * @param port Port de l'hôte à contacter
+     * @param msg Message à envoyer
+     *
+     * @throws IOException Si on ne parvient pas à envoyer le message
+     */
+    void send(InetAddress addr, int port, String msg) throws IOException;
+
+    /**
+     * Envoie des données brutes sans confirmation.
+     *
+     * @param addr Adresse de l'hôte à contacter
+     * @param port Port de l'hôte à contacter
+     * @param data Données à envoyer (de la position à la limite du buffer)
+     *
+     * @throws IOException Si on ne parvient pas à envoyer les données
+     */
+    void send(InetAddress addr, int port, ByteBuffer data) throws IOException;
+
+    /**
+     * Envoie des données brutes sans confirmation, à un destinataire dont
+     * l'adresse est conservée par l'appelant (elle n'est pas recréée à
+     * chaque envoi)
+     *
+     * @param target Destinataire
+     * @param data Données à envoyer (de la position à la limite du buffer)
+     *
+     * @throws IOException Si on ne parvient pas à envoyer les données
+     */
+    void send(InetSocketAddress target, ByteBuffer data) throws IOException;
+
+    /**
+     * Ferme la connexion. Rien ne le fait à notre place : à appeler dès
+     * qu'elle ne sert plus. Sans effet sur une connexion déjà fermée.
+     */
+    void close();
+}
@@ -0,0 +1,382 @@
+/*
+ *  DedicatedServer.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package server;
+
+import game.Constants;
+import game.Constants.Level;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import game.protocol.BinaryProtocol;
+import network.ChannelConnection;
+import network.Paquet;
+import network.SessionTokens;
+
+
+/**
+ * Serveur dédié, sans interface graphique, capable d'héberger de
+ * nombreuses parties en même temps sur un seul port.
+ *
+ * Un thread reçoit tous les datagrammes et les répartit entre les parties
+ * selon l'adresse de leur expéditeur. Chaque nouvelle adresse qui dit
+ * "HELLO" obtient sa propre partie. Un client qui change d'adresse la
+ * retrouve en présentant son jeton de session. Les parties sont exécutées
+ * par un petit groupe de threads de simulation.
+ */
+public final class DedicatedServer {
+    /**
+     * Intervalle de nettoyage des parties terminées, en millisecondes
+     */
+    private static final long REAP_DELAY    = 1000;
+
+    private int port = 6000;
+    private int maxPoints = 5;
+    private Level level = Level.MEDIUM;
+    private int nbThreads = Runtime.getRuntime().availableProcessors();
+    private int maxSessions = 1000;
+    private int tickRate = Constants.REFERENCE_TICK_RATE;
+    private int idleTimeout = Constants.IDLE_TIMEOUT;
+
+    private volatile boolean running = false;
+
+    private ChannelConnection sock;
+    private ScheduledExecutorService executor;
+
+    private final Map<InetSocketAddress, MatchSession> sessions =
+        new ConcurrentHashMap<InetSocketAddress, MatchSession>();
+
+    /**
+     * Parties en cours, par jeton de session
+     */
+    private final Map<Long, MatchSession> tokens =
+        new ConcurrentHashMap<Long, MatchSession>();
+
+
+    /**
+     * Programme principal
+     *
+     * @param args arguments du programme (port, nombre de points,
+     *             difficulté, nombre de threads de simulation, fréquence
+     *             de simulation)
+     */
+    public static void main(String[] args) {
+        final DedicatedServer server = new DedicatedServer();
+
+        try {
+            if(args.length > 0)
+                server.setPort(Integer.parseInt(args[0]));
+            if(args.length > 1)
+                server.setMaxPoints(Integer.parseInt(args[1]));
+            if(args.length > 2)
+                server.setLevel(args[2]);
+            if(args.length > 3)
+                server.setThreads(Integer.parseInt(args[3]));
+            if(args.length > 4)
+                server.setTickRate(Integer.parseInt(args[4]));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Usage : DedicatedServer [port [points [difficulté [threads [fréquence]]]]]");
+            System.exit(1);
+        }
+
+        // les clients sont prévenus de l'arrêt du serveur (Ctrl-C compris)
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+
+        try {
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("Erreur du serveur : " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Définit le port sur lequel devra fonctionner le serveur
+     *
+     * @param port Port d'écoute du serveur
+     *
+     * @throws IllegalArgumentException Si le port est inférieur ou égal à 0
+     */
+    public void setPort(int port) {
+        if(port <= 0)
+            throw new IllegalArgumentException("Port incorrect");
+
+        this.port = port;
+    }
+
+    /**
+     * Fixe le nombre de points à atteindre pour gagner une partie
+     *
+     * @throws IllegalArgumentException Si le nombre de points est strictement
+     *                                  inférieur à 1
+     */
+    public void setMaxPoints(int max) {
+        if(max < 1)
+            throw new IllegalArgumentException("Nombre de points maximal incorrect : doit être supérieur à 0");
+
+        maxPoints = max;
+    }
+
+    public void setLevel(String level) {
+        this.level = Level.valueOf(level.toUpperCase());
+    }
+
+    /**
+     * Fixe le nombre de threads chargés de la simulation des parties
+     *
+     * @throws IllegalArgumentException Si le nombre de threads est
+     *                                  strictement inférieur à 1
+     */
+    public void setThreads(int nbThreads) {
+        if(nbThreads < 1)
+            throw new IllegalArgumentException("Nombre de threads incorrect");
+
+        this.nbThreads = nbThreads;
+    }
+
+    /**
+     * Définit la fréquence de simulation des parties
+     *
+     * @throws IllegalArgumentException Si la fréquence est inférieure ou
+     *                                  égale à 0
+     */
+    public void setTickRate(int ticksPerSecond) {
+        if(ticksPerSecond <= 0)
+            throw new IllegalArgumentException("Fréquence incorrecte");
+
+        tickRate = ticksPerSecond;
+    }
+
+    /**
+     * Fixe le silence au-delà duquel un client est considéré comme parti,
+     * et sa partie abandonnée
+     *
+     * @param millis Délai en millisecondes
+     *
+     * @throws IllegalArgumentException Si le délai est inférieur ou égal à 0
+     */
+    public void setIdleTimeout(int millis) {
+        if(millis <= 0)
+            throw new IllegalArgumentException("Délai incorrect");
+
+        idleTimeout = millis;
+    }
+
+    /**
+     * Fixe le nombre maximal de parties simultanées
+     */
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Nombre de parties en cours
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Lance le serveur et reçoit les datagrammes jusqu'à la fermeture de la
+     * connexion : ne rend la main qu'après stop().
+     *
+     * @throws IOException Si le serveur ne peut pas être lancé, ou si la
+     *                     connexion est fermée sans appel à stop()
+     */
+    public void serve() throws IOException {
+        sock = new ChannelConnection(port);
+        executor = Executors.newScheduledThreadPool(nbThreads);
+        running = true;
+
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reap();
+            }
+        }, REAP_DELAY, REAP_DELAY, TimeUnit.MILLISECONDS);
+
+        System.out.println(String.format("Serveur lancé sur le port %d (%d threads, %d Hz)",
+                                         port, nbThreads, tickRate));
+
+        while(running) {
+            Paquet p;
+            try {
+                p = sock.receive();
+            } catch (IOException e) {
+                // un datagramme illisible est ignoré, une connexion fermée
+                // met fin à la boucle
+                if(sock.isOpen())
+                    continue;
+
+                if(!running)
+                    return;
+
+                stop();
+                throw e;
+            }
+
+            if(p != null)
+                dispatch(p);
+        }
+    }
+
+    /**
+     * Arrête le serveur : les clients sont prévenus, les threads de
+     * simulation arrêtés et la connexion fermée. serve() rend alors la main.
+     */
+    public void stop() {
+        if(!running)
+            return;
+
+        running = false;
+
+        for(MatchSession session : sessions.values()) {
+            session.cancel();
+            session.close();
+        }
+        sessions.clear();
+        tokens.clear();
+
+        executor.shutdownNow();
+        sock.close();
+    }
+
+    /**
+     * Transmet un paquet à la partie de son expéditeur. Un expéditeur
+     * inconnu qui demande à jouer obtient une nouvelle partie, celui qui
+     * présente un jeton de session retrouve la sienne.
+     */
+    private void dispatch(Paquet p) {
+        InetSocketAddress from = p.getSender();
+        MatchSession session = sessions.get(from);
+
+        if(session == null) {
+            if(isMessage(p, Constants.MSG_HELLO) || isMessage(p, Constants.MSG_HELLO_BINARY))
+                session = createSession(from);
+            else
+                session = resumeSession(from, p);
+
+            if(session == null) {
+                p.release();
+                return;
+            }
+        }
+
+        session.deliver(p);
+    }
+
+    /**
+     * Indique si le paquet contient exactement le message (ASCII) donné,
+     * sans construire de chaîne
+     */
+    private static boolean isMessage(Paquet p, String msg) {
+        if(p.length() != msg.length())
+            return false;
+
+        for(int i = 0; i < msg.length(); i++) {
+            if(p.getByte(i) != msg.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private MatchSession createSession(InetSocketAddress from) {
+        if(sessions.size() >= maxSessions)
+            return null;
+
+        MatchSession session = new MatchSession(sock, from.getAddress(),
+                                                from.getPort(), level, maxPoints,
+                                                tickRate, idleTimeout);
+
+        sessions.put(from, session);
+        tokens.put(session.getSessionToken(), session);
+        // à fréquence fixe : un tick en retard est rattrapé aussitôt
+        session.setTask(executor.scheduleAtFixedRate(session, 0,
+                                                     1000000000L / tickRate,
+                                                     TimeUnit.NANOSECONDS));
+
+        System.out.println(String.format("Nouvelle partie avec %s (%d en cours)",
+                                         from, sessions.size()));
+
+        return session;
+    }
+
+    /**
+     * Rattache une nouvelle adresse à la partie dont le paquet présente le
+     * jeton
+     *
+     * @return La partie reprise, null si le jeton est absent ou inconnu
+     */
+    private MatchSession resumeSession(InetSocketAddress from, Paquet p) {
+        long token = BinaryProtocol.peekResume(p.getData());
+        if(token == SessionTokens.NONE)
+            return null;
+
+        MatchSession session = tokens.get(token);
+        if(session == null || session.isFinished())
+            return null;
+
+        sessions.values().remove(session);
+        sessions.put(from, session);
+
+        System.out.println(String.format("Reprise de la partie de %s:%d par %s",
+                                         session.getAddress(), session.getPort(), from));
+
+        return session;
+    }
+
+    /**
+     * Oublie les parties terminées
+     */
+    private void reap() {
+        Iterator<MatchSession> it = sessions.values().iterator();
+
+        while(it.hasNext()) {
+            MatchSession session = it.next();
+
+            if(!session.isFinished())
+                continue;
+
+            session.cancel();
+            it.remove();
+            tokens.remove(session.getSessionToken());
+
+            System.out.println(String.format("%s avec %s:%d (%d en cours) : %s, %s",
+                                             session.isAbandoned() ? "Partie abandonnée"
+                                                                   : "Fin de la partie",
+                                             session.getAddress(), session.getPort(),
+                                             sessions.size(), session.getLinkStats(),
+                                             session.getSendRate()));
+        }
+    }
+}
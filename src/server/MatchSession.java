@@ -0,0 +1,654 @@
+/*
+ *  MatchSession.java
+ *
+ *  Copyright 2011 Kévin Gomez Pinto <contact@kevingomez.fr>
+ *                 Jonathan Da Silva <Jonathan.Da_Silva1@etudiant.u-clermont1.fr>
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ *  MA 02110-1301, USA.
+ */
+
+package server;
+
+import game.Constants;
+import game.Constants.Level;
+import game.Constants.State;
+import game.InputSequence;
+import game.MatchListener;
+import game.MatchSimulation;
+import game.objects.Ball;
+import game.objects.Player;
+import game.objects.Wall;
+import game.protocol.BinaryProtocol;
+import game.protocol.MessageListener;
+import game.protocol.MessageSender;
+import game.protocol.Protocol;
+import game.protocol.Snapshot;
+import game.protocol.TextProtocol;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+
+import network.LinkStats;
+import network.Paquet;
+import network.SendRateController;
+import network.SessionTokens;
+import network.Transport;
+
+
+/**
+ * Une partie hébergée par le serveur dédié : le client distant joue contre
+ * une raquette pilotée par le serveur.
+ *
+ * Les paquets du client sont déposés dans la boite de réception de la
+ * session par le thread de réception du serveur, puis traités à chaque
+ * tick par un des threads de simulation. Une session n'est jamais
+ * exécutée par deux threads à la fois.
+ */
+final class MatchSession implements Runnable, MatchListener, MessageListener {
+    /**
+     * Délai entre deux propositions du protocole binaire, et nombre de
+     * propositions avant d'attendre que le client se rabatte sur le texte
+     */
+    private static final long HELLO_RETRY_DELAY = 500;
+    private static final int HELLO_TRIES        = 3;
+
+    /**
+     * Délai avant le lancement (ou la relance) de la balle. Il laisse au
+     * client le temps de faire clignoter son interface après un point.
+     */
+    private static final long SERVE_DELAY       = 2500;
+
+    /**
+     * Temps laissé au client, la partie finie, pour acquitter le score et
+     * l'état final
+     */
+    private static final long FINAL_DELIVERY_DELAY = 2000;
+
+    /**
+     * Nombre maximal de paquets reçus en attente du prochain tick : au-delà,
+     * ils sont ignorés
+     */
+    private static final int INBOX_SIZE         = 64;
+
+    /**
+     * Vitesse maximale de la raquette du serveur (en pixels par tick à la
+     * fréquence de référence)
+     */
+    private static final int BOT_SPEED          = 3;
+
+    /**
+     * Adresse du client : elle change quand il reprend la partie depuis
+     * une autre adresse
+     */
+    private volatile InetAddress address;
+    private volatile int port;
+
+    /**
+     * Jeton remis au client (en mode binaire) pour qu'il puisse reprendre
+     * la partie depuis une autre adresse
+     */
+    private final long sessionToken = SessionTokens.generate();
+
+    private final Transport sock;
+    private final MessageSender sender = new MessageSender();
+    private Protocol protocol = new TextProtocol();
+
+    private final Queue<Paquet> inbox = new ArrayBlockingQueue<Paquet>(INBOX_SIZE);
+
+    private final Ball ball;
+    private final Player player1, player2;
+    private final Wall wall;
+    private final MatchSimulation simulation;
+    private final InputSequence clientInputs = new InputSequence();
+    private final Snapshot snapshot = new Snapshot();
+
+    /**
+     * Fréquence d'envoi de l'état de la partie, adaptée au lien
+     */
+    private final SendRateController sendRate;
+
+    /**
+     * Numéro de la proposition du protocole binaire en attente de
+     * confirmation, 0 s'il n'y en a pas
+     */
+    private int helloNumber = 0;
+    private int helloTries = 0;
+    private long helloSentAt;
+
+    /**
+     * Vitesse maximale de la raquette du serveur à la fréquence de la
+     * simulation
+     */
+    private final int botSpeed;
+
+    /**
+     * Silence toléré du client, en nanosecondes
+     */
+    private final long idleTimeout;
+
+    private boolean started = false;
+    private long readySince;
+    private long finishedAt;
+    private boolean clientGone = false;
+    private volatile boolean finished = false;
+    private volatile boolean abandoned = false;
+
+    private volatile ScheduledFuture<?> task;
+
+
+    MatchSession(Transport sock, InetAddress address, int port, Level level,
+                 int maxPoints, int tickRate, int idleTimeout) {
+        this.sock = sock;
+        this.idleTimeout = idleTimeout * 1000000L;
+        this.address = address;
+        this.port = port;
+
+        simulation = new MatchSimulation(Constants.FIELD_WIDTH,
+                                         Constants.FIELD_HEIGHT, this);
+        simulation.setLevel(level);
+        simulation.setMaxPoints(maxPoints);
+        simulation.setTickRate(tickRate);
+
+        botSpeed = Math.max(1, BOT_SPEED * Constants.REFERENCE_TICK_RATE / tickRate);
+        sendRate = new SendRateController(Math.min(Constants.MIN_SEND_RATE, tickRate), tickRate);
+
+        ball = simulation.getBall();
+        player1 = simulation.getPlayer1();
+        player2 = simulation.getPlayer2();
+        wall = simulation.getWall();
+
+        sender.setTransport(sock);
+        sender.setDestination(address, port);
+    }
+
+    InetAddress getAddress() {
+        return address;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    long getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Tâche qui exécute les ticks de la session
+     */
+    void setTask(ScheduledFuture<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * Arrête l'exécution des ticks de la session
+     */
+    void cancel() {
+        if(task != null)
+            task.cancel(false);
+    }
+
+    /**
+     * Dépose un paquet reçu du client. Appelée par le thread de réception.
+     * Le paquet sera rendu à sa réserve une fois traité.
+     */
+    void deliver(Paquet p) {
+        sender.getLinkStats().heard(System.nanoTime());
+
+        if(!inbox.offer(p))
+            p.release();
+    }
+
+    /**
+     * @return Qualité du lien avec le client
+     */
+    LinkStats getLinkStats() {
+        return sender.getLinkStats();
+    }
+
+    SendRateController getSendRate() {
+        return sendRate;
+    }
+
+    /**
+     * La partie est terminée : la session peut être oubliée
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return true si le client est parti avant la fin de la partie
+     */
+    boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Prévient le client que le serveur s'arrête. La session ne doit plus
+     * être exécutée.
+     */
+    void close() {
+        try {
+            sender.sendDisconnect();
+        } catch (IOException e) {
+            // il constatera notre silence
+        }
+
+        finished = true;
+    }
+
+    /**
+     * Un tick de la session : traitement des paquets reçus, puis avancement
+     * de la partie. Une fois la session terminée, ses ticks s'arrêtent : les
+     * adieux au client ne partent qu'une fois.
+     */
+    @Override
+    public void run() {
+        if(finished) {
+            cancel();
+            return;
+        }
+
+        try {
+            // tout ce qui est envoyé pendant le tick part dans un seul
+            // datagramme, à la fin
+            sender.beginFrame();
+            tick();
+            sender.endFrame();
+        } catch (IOException e) {
+            onSendError();
+        } catch (RuntimeException e) {
+            // une erreur dans une partie ne doit pas gêner les autres
+            System.err.println("Partie interrompue suite à une erreur : " + e);
+            finished = true;
+        }
+
+        if(finished)
+            cancel();
+    }
+
+    private void tick() throws IOException {
+        Paquet p;
+        while((p = inbox.poll()) != null) {
+            if(!started)
+                handshake(p);
+            else if(isFromClient(p) || rebind(p)) {
+                sender.onDatagram(p.getReceivedAt());
+                protocol.read(p.getData(), this);
+            }
+
+            p.release();
+        }
+
+        if(clientGone || isClientIdle()) {
+            abandoned = simulation.getState() != State.FINISHED;
+            sender.close();
+            finished = true;
+            return;
+        }
+
+        if(!started) {
+            retryHello();
+            return;
+        }
+
+        if(simulation.getState() == State.FINISHED) {
+            waitFinalDelivery();
+            return;
+        }
+
+        // confirmation au client du dernier mouvement appliqué
+        if(clientInputs.takeAckPending())
+            sender.sendInputAck(player2, clientInputs.getLastApplied());
+
+        updateClientLatency();
+
+        moveBot();
+
+        if(simulation.getState() == State.READY
+           && System.currentTimeMillis() - readySince >= SERVE_DELAY)
+            simulation.serve();
+
+        simulation.step();
+
+        // l'état part à la fréquence que le lien supporte
+        long now = System.nanoTime();
+        if(simulation.getState() == State.PAUSED)
+            sendRate.suspend(now);
+        sendRate.update(sender.getLinkStats(), now);
+        if(sendRate.shouldSend(now))
+            sendMatchState();
+
+        sender.setFrameTick(simulation.getTick());
+
+        if(simulation.getState() == State.FINISHED)
+            finishedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Le retard du client suit le temps d'aller-retour mesuré, dès qu'il
+     * y en a une mesure (sinon celui de la poignée de main est conservé)
+     */
+    private void updateClientLatency() {
+        long srtt = sender.getLinkStats().getSrtt();
+
+        if(srtt >= 0)
+            simulation.setLatency(player2, (int) (srtt / 1000000) + Constants.INTERPOLATION_DELAY);
+    }
+
+    /**
+     * En mode binaire, l'état complet de la partie part à chaque tick (s'il
+     * a changé depuis le dernier acquitté par le client). En mode texte,
+     * seule la position de la balle part à chaque tick, le reste est envoyé
+     * quand il change.
+     */
+    private void sendMatchState() throws IOException {
+        if(!sender.supportsSnapshots()) {
+            sender.sendBall(ball);
+            return;
+        }
+
+        snapshot.capture(ball, player1, player2, wall, simulation.getState());
+        sender.sendSnapshot(snapshot);
+    }
+
+    /**
+     * Le client n'a rien envoyé depuis trop longtemps. Une fois la partie
+     * lancée en mode texte, il n'envoie rien tant que sa souris ne bouge
+     * pas : seule la poignée de main est alors surveillée.
+     */
+    private boolean isClientIdle() {
+        if(started && !sender.supportsHeartbeat())
+            return false;
+
+        return sender.getLinkStats().getIdleTime(System.nanoTime()) > idleTimeout;
+    }
+
+    /**
+     * Partie terminée : on laisse au score et à l'état final le temps
+     * d'être acquittés avant d'oublier la session
+     */
+    private void waitFinalDelivery() throws IOException {
+        sendMatchState();
+
+        boolean pending = sender.hasUnacknowledged()
+                          || (sender.supportsSnapshots() && !sender.isSnapshotAcknowledged(snapshot));
+
+        if(pending && System.currentTimeMillis() - finishedAt < FINAL_DELIVERY_DELAY)
+            return;
+
+        sender.sendDisconnect();
+        finished = true;
+    }
+
+    private boolean isFromClient(Paquet p) {
+        return p.getPort() == port && p.getAddress().equals(address);
+    }
+
+    /**
+     * Le client a changé d'adresse : s'il présente le jeton de la session,
+     * la partie le suit
+     *
+     * @return true si le paquet vient désormais du client
+     */
+    private boolean rebind(Paquet p) {
+        if(BinaryProtocol.peekResume(p.getData()) != sessionToken)
+            return false;
+
+        address = p.getAddress();
+        port = p.getPort();
+        sender.setDestination(address, port);
+
+        return true;
+    }
+
+    /**
+     * Traite un paquet reçu avant le début de la partie : demande de
+     * connexion ou confirmation de la proposition du protocole binaire.
+     */
+    private void handshake(Paquet p) throws IOException {
+        String msg = p.getMessage();
+
+        if(msg.equals(Constants.MSG_HELLO)) {
+            start();
+        } else if(msg.equals(Constants.MSG_HELLO_BINARY)) {
+            helloTries = 0;
+            proposeBinary();
+        } else if(helloNumber != 0 && msg.equals(String.format("%d OK", helloNumber))) {
+            protocol = new BinaryProtocol();
+            sender.setProtocol(protocol);
+
+            // la confirmation donne une mesure de l'aller-retour : le client
+            // voit la balle avec ce retard plus celui de son affichage
+            long rtt = System.currentTimeMillis() - helloSentAt;
+            simulation.setLatency(player2, (int) rtt + Constants.INTERPOLATION_DELAY);
+
+            start();
+            sender.sendSession(sessionToken);
+        }
+    }
+
+    /**
+     * Renvoie au client sa proposition du protocole binaire, sous forme
+     * d'un message à confirmer
+     */
+    private void proposeBinary() throws IOException {
+        helloNumber++;
+        helloTries++;
+        helloSentAt = System.currentTimeMillis();
+
+        sock.send(address, port, String.format("%d %s", helloNumber,
+                                               Constants.MSG_HELLO_BINARY));
+    }
+
+    private void retryHello() throws IOException {
+        if(helloNumber == 0 || helloTries >= HELLO_TRIES)
+            return;
+
+        if(System.currentTimeMillis() - helloSentAt >= HELLO_RETRY_DELAY)
+            proposeBinary();
+    }
+
+    private void start() {
+        started = true;
+
+        simulation.setState(State.READY);
+    }
+
+    /**
+     * La raquette du serveur suit la balle, à vitesse limitée
+     */
+    private void moveBot() throws IOException {
+        int target = ball.y - 25;
+        int delta = Math.max(-botSpeed, Math.min(botSpeed, target - player1.y));
+
+        if(delta == 0)
+            return;
+
+        player1.y += delta;
+
+        // sinon la raquette part avec le prochain instantané
+        if(!sender.supportsSnapshots())
+            sender.sendMove(player1);
+    }
+
+    /*
+     * Evénements de la partie : on les transmet au client
+     */
+
+    @Override
+    public void onBallContact() {
+        try {
+            sender.sendContact();
+        } catch (IOException e) {
+            onSendError();
+        }
+    }
+
+    @Override
+    public void onWallMoved() {
+        if(sender.supportsSnapshots())
+            return;
+
+        try {
+            sender.sendWallPos(wall);
+        } catch (IOException e) {
+            onSendError();
+        }
+    }
+
+    @Override
+    public void onBackWallTouched() {
+        try {
+            sender.sendWallTouched();
+        } catch (IOException e) {
+            onSendError();
+        }
+    }
+
+    @Override
+    public void onScoreChanged() {
+        if(sender.supportsSnapshots())
+            return;
+
+        try {
+            sender.sendScore(player1);
+            sender.sendScore(player2);
+        } catch (IOException e) {
+            onSendError();
+        }
+    }
+
+    @Override
+    public void onStateChanged(State newState) {
+        if(newState == State.READY)
+            readySince = System.currentTimeMillis();
+
+        if(sender.supportsSnapshots())
+            return;
+
+        try {
+            sender.sendState(newState);
+        } catch (IOException e) {
+            onSendError();
+        }
+    }
+
+    /**
+     * Le client est injoignable : la partie ne peut pas continuer
+     */
+    private void onSendError() {
+        finished = true;
+    }
+
+    /*
+     * Messages du client : seuls sa raquette et la mise en pause nous
+     * intéressent
+     */
+
+    @Override
+    public void onMoveMessage(int player, int y) {
+        if(player == player2.getId())
+            player2.y = y;
+    }
+
+    @Override
+    public void onInputMessage(int player, int sequence, int y) {
+        if(player == player2.getId() && clientInputs.accept(sequence))
+            player2.y = MatchSimulation.clampPaddle(y);
+    }
+
+    @Override
+    public void onStateMessage(State state) {
+        State current = simulation.getState();
+
+        if((current == State.STARTED && state == State.PAUSED)
+           || (current == State.PAUSED && state == State.STARTED))
+            simulation.setState(state);
+    }
+
+    @Override
+    public void onBallMessage(int x, int y) { }
+
+    @Override
+    public void onScoreMessage(int player, int score) { }
+
+    @Override
+    public void onContactMessage() { }
+
+    @Override
+    public void onWallTouchedMessage() { }
+
+    @Override
+    public void onWallPosMessage(int x, int y, boolean visible) { }
+
+    @Override
+    public void onInputAckMessage(int player, int sequence, int y) { }
+
+    @Override
+    public void onReliableMessage(int sequence, ByteBuffer payload) {
+        sender.onReliable(sequence, payload, this);
+    }
+
+    @Override
+    public void onAckMessage(int ack, int bits) {
+        sender.onAck(ack, bits);
+    }
+
+    @Override
+    public void onSnapshotMessage(int sequence, int baseline, ByteBuffer delta) { }
+
+    @Override
+    public void onSnapshotAckMessage(int sequence) {
+        sender.onSnapshotAck(sequence);
+    }
+
+    @Override
+    public boolean onFrameMessage(int sequence, long tick) {
+        return sender.getLinkStats().acceptFrame(sequence);
+    }
+
+    @Override
+    public void onPingMessage(int time) {
+        sender.onPing(time);
+    }
+
+    @Override
+    public void onPongMessage(int echo, int hold, int loss) {
+        sender.onPong(echo, hold, loss);
+    }
+
+    @Override
+    public void onDisconnectMessage() {
+        clientGone = true;
+    }
+
+    @Override
+    public void onSessionMessage(long token) { }
+
+    /**
+     * Le client a perdu le fil : tout l'état lui est renvoyé
+     */
+    @Override
+    public void onResumeMessage(long token) {
+        if(token == sessionToken)
+            sender.resync();
+    }
+}